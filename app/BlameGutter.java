@@ -0,0 +1,166 @@
+package app;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+ * Row header showing, next to each editor line, the version that introduced
+ * it. Lines added since the version was loaded are marked with "+". Only the
+ * lines inside the clip are looked up and painted.
+ */
+public class BlameGutter extends JComponent implements DocumentListener {
+
+    private static final int PADDING = 6;
+
+    private final JTextArea editor;
+    // Origin per line in a gap buffer, so lines added where the user is
+    // typing do not copy the whole array; the gap is [gapStart, gapEnd)
+    private int[] origins = new int[0];
+    private int gapStart;
+    private int gapEnd;
+    private int size;
+    // Highest origin shown; edits only add unsaved lines, so it stays an upper bound
+    private int maxOrigin;
+
+    public BlameGutter(JTextArea editor) {
+        this.editor = editor;
+        setFont(editor.getFont().deriveFont(Font.PLAIN, Math.max(9f, editor.getFont().getSize2D() - 1)));
+        setForeground(Color.GRAY);
+        setBackground(new Color(245, 245, 245));
+        setOpaque(true);
+        editor.getDocument().addDocumentListener(this);
+        editor.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                revalidate();
+                repaint();
+            }
+        });
+    }
+
+    /**
+     * Show annotations for the text currently in the editor.
+     * @param origins introducing version number per line, as from BlameService
+     */
+    public void setOrigins(int[] origins) {
+        this.origins = origins == null ? new int[0] : origins;
+        this.size = this.origins.length;
+        gapStart = gapEnd = size;
+        maxOrigin = 0;
+        for (int origin : this.origins) maxOrigin = Math.max(maxOrigin, origin);
+        revalidate();
+        repaint();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics fm = getFontMetrics(getFont());
+        int width = fm.stringWidth("v" + Math.max(maxOrigin, 99)) + 2 * PADDING;
+        return new Dimension(width, editor.getPreferredSize().height);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        if (size == 0) return;
+
+        FontMetrics fm = g.getFontMetrics(getFont());
+        g.setFont(getFont());
+        g.setColor(getForeground());
+        int first = editor.viewToModel2D(new Point2D.Double(0, clip.y));
+        int last = editor.viewToModel2D(new Point2D.Double(0, clip.y + clip.height));
+        Element root = editor.getDocument().getDefaultRootElement();
+        int firstLine = root.getElementIndex(first);
+        int lastLine = Math.min(root.getElementIndex(last), Math.min(size, root.getElementCount()) - 1);
+        int baseline = fm.getAscent() + (editor.getFontMetrics(editor.getFont()).getHeight() - fm.getHeight()) / 2;
+        try {
+            for (int line = firstLine; line <= lastLine; line++) {
+                Rectangle2D r = editor.modelToView2D(root.getElement(line).getStartOffset());
+                int origin = originAt(line);
+                String label = origin == 0 ? "+" : "v" + origin;
+                g.drawString(label, getWidth() - PADDING - fm.stringWidth(label), (int) r.getY() + baseline);
+            }
+        } catch (BadLocationException ignored) {
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        lineStructureChanged(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        lineStructureChanged(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    /**
+     * Keep annotations aligned with lines while the text is edited: the edited
+     * line keeps its origin and new lines are marked as unsaved.
+     */
+    private void lineStructureChanged(DocumentEvent e) {
+        DocumentEvent.ElementChange change = e.getChange(editor.getDocument().getDefaultRootElement());
+        if (change == null || size == 0) return;
+        int index = change.getIndex();
+        // Lines past the annotated ones have no origins; an edit there moves none of them
+        if (index > size) return;
+        int removed = Math.min(change.getChildrenRemoved().length, size - index);
+        int added = change.getChildrenAdded().length;
+
+        int keep = removed > 0 ? originAt(index) : 0;
+        moveGap(index);
+        gapEnd += removed;
+        ensureGap(added);
+        Arrays.fill(origins, gapStart, gapStart + added, 0);
+        gapStart += added;
+        size += added - removed;
+        if (added > 0 && removed > 0 && e.getType() == DocumentEvent.EventType.INSERT) origins[index] = keep;
+        if (added > 0 && e.getType() == DocumentEvent.EventType.REMOVE) origins[index] = keep;
+        revalidate();
+        repaint();
+    }
+
+    private int originAt(int line) {
+        return origins[line < gapStart ? line : line + gapEnd - gapStart];
+    }
+
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            int n = gapStart - index;
+            System.arraycopy(origins, index, origins, gapEnd - n, n);
+            gapStart = index;
+            gapEnd -= n;
+        } else if (index > gapStart) {
+            int n = index - gapStart;
+            System.arraycopy(origins, gapEnd, origins, gapStart, n);
+            gapStart = index;
+            gapEnd += n;
+        }
+    }
+
+    private void ensureGap(int needed) {
+        if (gapEnd - gapStart >= needed) return;
+        int tail = origins.length - gapEnd;
+        int capacity = Math.max(origins.length + origins.length / 2, size + needed) + 64;
+        int[] grown = new int[capacity];
+        System.arraycopy(origins, 0, grown, 0, gapStart);
+        System.arraycopy(origins, gapEnd, grown, capacity - tail, tail);
+        gapEnd = capacity - tail;
+        origins = grown;
+    }
+}
@@ -0,0 +1,16 @@
+package app;
+
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.Element;
+import javax.swing.text.View;
+
+/**
+ * Text area UI that renders the document with {@link EditorView}.
+ */
+public class EditorTextAreaUI extends BasicTextAreaUI {
+
+    @Override
+    public View create(Element elem) {
+        return new EditorView(elem);
+    }
+}
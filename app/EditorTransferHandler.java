@@ -0,0 +1,66 @@
+package app;
+
+import javax.swing.*;
+import javax.swing.text.JTextComponent;
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.event.InputEvent;
+
+/**
+ * Transfer handler for the editor that routes pastes and dropped files
+ * through an importer (see {@link StreamingInsert}), leaving copy, cut and
+ * in-editor text drags to the text area's own handler.
+ */
+public class EditorTransferHandler extends TransferHandler {
+
+    /**
+     * Inserts a transferable's text (or files) at the caret.
+     */
+    public interface Importer {
+        boolean importTransferable(Transferable transferable);
+    }
+
+    private final TransferHandler delegate;
+    private final Importer importer;
+
+    public EditorTransferHandler(TransferHandler delegate, Importer importer) {
+        this.delegate = delegate;
+        this.importer = importer;
+    }
+
+    @Override
+    public boolean canImport(TransferSupport support) {
+        if (support.isDataFlavorSupported(DataFlavor.javaFileListFlavor)) {
+            if (support.isDrop()) support.setDropAction(COPY);
+            return true;
+        }
+        return delegate.canImport(support);
+    }
+
+    @Override
+    public boolean importData(TransferSupport support) {
+        boolean files = support.isDataFlavorSupported(DataFlavor.javaFileListFlavor);
+        if (support.isDrop() && !files) return delegate.importData(support);
+        if (support.isDrop() && support.getComponent() instanceof JTextComponent) {
+            JTextComponent text = (JTextComponent) support.getComponent();
+            text.setCaretPosition(((JTextComponent.DropLocation) support.getDropLocation()).getIndex());
+        }
+        return importer.importTransferable(support.getTransferable());
+    }
+
+    @Override
+    public int getSourceActions(JComponent c) {
+        return delegate.getSourceActions(c);
+    }
+
+    @Override
+    public void exportAsDrag(JComponent comp, InputEvent e, int action) {
+        delegate.exportAsDrag(comp, e, action);
+    }
+
+    @Override
+    public void exportToClipboard(JComponent comp, Clipboard clip, int action) {
+        delegate.exportToClipboard(comp, clip, action);
+    }
+}
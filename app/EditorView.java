@@ -0,0 +1,1033 @@
+package app;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Editor view that lays out and paints only what is visible.
+ *
+ * Lines are never measured up front. Each line has a row count (exactly 1
+ * without wrapping, an estimate from its length with wrapping) held in a
+ * blocked Fenwick tree, so mapping between a y coordinate and a line is
+ * O(log lines) and adding or removing lines only touches one block.
+ * When a line is painted or queried its real layout is computed once and
+ * kept in a small LRU cache: wrapped row breaks, and for very long unwrapped
+ * lines the widths of runs of about {@link #CHECKPOINT_CHARS} characters, so
+ * only the horizontally visible part of a multi-megabyte line is measured or
+ * drawn. Typing into a long line re-measures only the rows or runs around
+ * the edit.
+ */
+public class EditorView extends View implements TabExpander {
+
+    private static final int CHECKPOINT_CHARS = 1024;
+    private static final int LONG_LINE_CHARS = 4 * CHECKPOINT_CHARS;
+    private static final int LAYOUT_CACHE_SIZE = 2048;
+    private static final int WIDTH_RESCAN_MILLIS = 1000;
+    private static final int WRAP_WINDOW = 16 * CHECKPOINT_CHARS;
+
+    private final Segment segment = new Segment();
+    private final Map<Element, LineLayout> layouts = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Element, LineLayout> eldest) {
+            return size() > LAYOUT_CACHE_SIZE;
+        }
+    };
+
+    private Font font;
+    private FontMetrics metrics;
+    private final int[] asciiWidths = new int[256];
+    private int charWidth;
+    private int lineHeight;
+    private int ascent;
+    private int tabSize;
+    private boolean wrap;
+    private boolean wrapStyleWord;
+    private int wrapWidth = Integer.MAX_VALUE;
+    private int tabBase;
+
+    private RowIndex rowIndex;
+    private final WideLines wideLines = new WideLines();
+    private final Timer widthRescan = new Timer(WIDTH_RESCAN_MILLIS, e -> {
+        wideLines.clear();
+        preferenceChanged(null, true, false);
+    });
+    private boolean heightChangePending;
+
+    public EditorView(Element root) {
+        super(root);
+        segment.setPartialReturn(false);
+        widthRescan.setRepeats(false);
+    }
+
+    // ---- metrics ----
+
+    private void updateMetrics() {
+        Component host = getContainer();
+        Font f = host.getFont();
+        if (f == font && rowIndex != null) return;
+
+        font = f;
+        metrics = host.getFontMetrics(f);
+        lineHeight = metrics.getHeight();
+        ascent = metrics.getAscent();
+        charWidth = Math.max(1, metrics.charWidth('m'));
+        for (int c = 0; c < asciiWidths.length; c++) asciiWidths[c] = metrics.charWidth((char) c);
+        if (host instanceof JTextArea) {
+            JTextArea area = (JTextArea) host;
+            tabSize = area.getTabSize() * charWidth;
+            wrap = area.getLineWrap();
+            wrapStyleWord = area.getWrapStyleWord();
+        } else {
+            tabSize = 8 * charWidth;
+        }
+        resetRows();
+    }
+
+    private void resetRows() {
+        layouts.clear();
+        Element root = getElement();
+        int count = root.getElementCount();
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) rows[i] = estimateRows(root.getElement(i));
+        rowIndex = new RowIndex(rows, count);
+        wideLines.clear();
+        widthRescan.stop();
+    }
+
+    private int estimateRows(Element line) {
+        if (!wrap) return 1;
+        long width = (long) lineLength(line) * charWidth;
+        return (int) Math.max(1, (width + wrapWidth - 1) / wrapWidth);
+    }
+
+    private static int lineLength(Element line) {
+        // PlainDocument lines include their newline; the last one ends past the content
+        return line.getEndOffset() - line.getStartOffset() - 1;
+    }
+
+    private int advance(char c, float x) {
+        if (c == '\t') {
+            return tabSize == 0 ? 0 : (int) nextTabStop(x + tabBase, 0) - tabBase - (int) x;
+        }
+        return c < asciiWidths.length ? asciiWidths[c] : metrics.charWidth(c);
+    }
+
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        if (tabSize == 0) return x;
+        int tabs = ((int) x - tabBase) / tabSize;
+        return tabBase + (tabs + 1) * tabSize;
+    }
+
+    // ---- line layout ----
+
+    private static final class LineLayout {
+        int length;
+        int width;
+        int[] rowStarts = {0};
+        int rowCount = 1;
+        // Unwrapped lines over LONG_LINE_CHARS
+        Runs runs;
+        boolean uniform;
+    }
+
+    /**
+     * A long unwrapped line as runs of about CHECKPOINT_CHARS characters,
+     * each measured on its own: its width up to its first tab, and from that
+     * tab's stop to its end. Tab stops are a fixed grid, so the x of every run
+     * follows from these in one pass over the runs, and an edit re-measures
+     * only the runs it touches.
+     */
+    private static final class Runs {
+        int count;
+        final int[] lengths;
+        final int[] heads;
+        // -1 for a run without a tab
+        final int[] tails;
+        final boolean[] uniform;
+        // Filled in by fold
+        final int[] starts;
+        final int[] xs;
+
+        Runs(int capacity) {
+            lengths = new int[capacity];
+            heads = new int[capacity];
+            tails = new int[capacity];
+            uniform = new boolean[capacity];
+            starts = new int[capacity];
+            xs = new int[capacity];
+        }
+
+        void append(Runs from, int index, int n) {
+            System.arraycopy(from.lengths, index, lengths, count, n);
+            System.arraycopy(from.heads, index, heads, count, n);
+            System.arraycopy(from.tails, index, tails, count, n);
+            System.arraycopy(from.uniform, index, uniform, count, n);
+            count += n;
+        }
+
+        /** Run containing rel; the last run for the end of the line. */
+        int runAt(int rel) {
+            int lo = 0, hi = count - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (starts[mid] <= rel) lo = mid;
+                else hi = mid - 1;
+            }
+            return lo;
+        }
+    }
+
+    private LineLayout layout(int line) {
+        Element el = getElement().getElement(line);
+        LineLayout layout = layouts.get(el);
+        if (layout == null) {
+            layout = computeLayout(el);
+            layouts.put(el, layout);
+            if (rowIndex.set(line, layout.rowCount)) scheduleHeightChange();
+        }
+        return layout;
+    }
+
+    private LineLayout computeLayout(Element el) {
+        LineLayout layout = new LineLayout();
+        layout.length = lineLength(el);
+        if (wrap) {
+            layout.uniform = true;
+            wrapRows(el, layout, 0, layout.length, layout.length);
+            return layout;
+        }
+        if (layout.length > LONG_LINE_CHARS) {
+            layout.runs = measureRuns(el.getStartOffset(), layout.length);
+            fold(layout);
+            return layout;
+        }
+        if (!loadText(el.getStartOffset(), layout.length)) return layout;
+
+        boolean uniform = true;
+        int saved = tabBase;
+        tabBase = 0;
+        int x = 0;
+        for (int i = 0; i < segment.count; i++) {
+            char c = segment.array[segment.offset + i];
+            int w = advance(c, x);
+            uniform &= c != '\t' && w == charWidth;
+            x += w;
+        }
+        tabBase = saved;
+        layout.width = x;
+        layout.uniform = uniform;
+        return layout;
+    }
+
+    private Runs measureRuns(int offset, int length) {
+        Runs runs = new Runs((length + CHECKPOINT_CHARS - 1) / CHECKPOINT_CHARS);
+        int saved = tabBase;
+        tabBase = 0;
+        for (int from = 0; from < length; from += CHECKPOINT_CHARS) {
+            int n = Math.min(CHECKPOINT_CHARS, length - from);
+            loadText(offset + from, n);
+            int k = runs.count++;
+            int head = -1;
+            int x = 0;
+            boolean uniform = true;
+            for (int i = 0; i < segment.count; i++) {
+                char c = segment.array[segment.offset + i];
+                if (c == '\t' && head < 0) {
+                    // Measure the rest of the run from the stop this tab reaches
+                    head = x;
+                    x = 0;
+                    uniform = false;
+                    continue;
+                }
+                int w = advance(c, x);
+                uniform &= c != '\t' && w == charWidth;
+                x += w;
+            }
+            runs.lengths[k] = n;
+            runs.heads[k] = head < 0 ? x : head;
+            runs.tails[k] = head < 0 ? -1 : x;
+            runs.uniform[k] = uniform;
+        }
+        tabBase = saved;
+        return runs;
+    }
+
+    /**
+     * Place the runs of a line one after another, giving the line its
+     * length, width and uniformity.
+     */
+    private void fold(LineLayout layout) {
+        Runs runs = layout.runs;
+        int x = 0;
+        int pos = 0;
+        boolean uniform = true;
+        for (int k = 0; k < runs.count; k++) {
+            runs.starts[k] = pos;
+            runs.xs[k] = x;
+            pos += runs.lengths[k];
+            x += runs.heads[k];
+            if (runs.tails[k] >= 0) {
+                if (tabSize > 0) x = (x / tabSize + 1) * tabSize;
+                x += runs.tails[k];
+            }
+            uniform &= runs.uniform[k];
+        }
+        layout.length = pos;
+        layout.width = x;
+        layout.uniform = uniform;
+    }
+
+    /**
+     * Bring the cached layout of a line up to date after delta characters
+     * were inserted at rel, or -delta removed there, by measuring only around
+     * the edit.
+     * @return false when the line should be laid out again instead
+     */
+    private boolean relayout(Element el, LineLayout layout, int rel, int delta) {
+        if (layout.length + delta <= LONG_LINE_CHARS) return false;
+        if (wrap) {
+            // The edit can move the break ending the row before it, but none earlier
+            int r = Math.max(0, rowOf(layout, rel, Position.Bias.Forward) - 1);
+            wrapRows(el, layout, r, layout.length + delta, rel + Math.max(delta, 0));
+            return true;
+        }
+        if (layout.runs == null) return false;
+
+        Runs runs = layout.runs;
+        int first = runs.runAt(rel);
+        int last = delta < 0 ? runs.runAt(rel - delta - 1) : first;
+        int from = runs.starts[first];
+        int to = runs.starts[last] + runs.lengths[last] + delta;
+        // A run shrunk to a sliver is merged into the next one
+        if (to - from < CHECKPOINT_CHARS / 2 && last + 1 < runs.count) to += runs.lengths[++last];
+
+        Runs edited = measureRuns(el.getStartOffset() + from, to - from);
+        Runs spliced = new Runs(runs.count - (last + 1 - first) + edited.count);
+        spliced.append(runs, 0, first);
+        spliced.append(edited, 0, edited.count);
+        spliced.append(runs, last + 1, runs.count - last - 1);
+        layout.runs = spliced;
+        fold(layout);
+        return true;
+    }
+
+    /**
+     * Break a line into rows from row r on, each row laid out from its own
+     * start, reading the text a window at a time. Old rows after r are taken
+     * to have moved by delta; once a row at or past editEnd starts where one
+     * of them does, the rest are kept as they are.
+     */
+    private void wrapRows(Element el, LineLayout layout, int r, int length, int editEnd) {
+        int[] old = layout.rowStarts;
+        int oldCount = layout.rowCount;
+        int delta = length - layout.length;
+        IntList starts = new IntList();
+        int resume = oldCount;
+        boolean uniform = true;
+        int saved = tabBase;
+        tabBase = 0;
+        int rowStart = old[r];
+        int lastBreak = -1;
+        float x = 0;
+        int window = rowStart;
+        int windowEnd = rowStart;
+        for (int i = rowStart; i < length; i++) {
+            if (i >= windowEnd) {
+                // Keep the current row in the window, since a break rescans it
+                window = rowStart;
+                windowEnd = Math.min(length, i + WRAP_WINDOW);
+                if (!loadText(el.getStartOffset() + window, windowEnd - window)) break;
+            }
+            char c = segment.array[segment.offset + i - window];
+            int w = advance(c, x);
+            uniform &= c != '\t' && w == charWidth;
+            if (x + w > wrapWidth && i > rowStart) {
+                int brk = (wrapStyleWord && lastBreak > rowStart) ? lastBreak : i;
+                if (brk >= editEnd) {
+                    int j = java.util.Arrays.binarySearch(old, r + 1, oldCount, brk - delta);
+                    if (j >= 0) {
+                        resume = j;
+                        break;
+                    }
+                }
+                starts.add(brk);
+                rowStart = brk;
+                lastBreak = -1;
+                x = 0;
+                i = brk - 1;
+                continue;
+            }
+            x += w;
+            if (c == ' ' || c == '\t') lastBreak = i + 1;
+        }
+        tabBase = saved;
+
+        int[] added = starts.toArray();
+        int[] rows = new int[r + 1 + added.length + oldCount - resume];
+        System.arraycopy(old, 0, rows, 0, r + 1);
+        System.arraycopy(added, 0, rows, r + 1, added.length);
+        for (int k = resume, n = r + 1 + added.length; k < oldCount; k++, n++) rows[n] = old[k] + delta;
+        layout.rowStarts = rows;
+        layout.rowCount = rows.length;
+        layout.length = length;
+        layout.uniform &= uniform;
+    }
+
+    /**
+     * Unwrapped width of a line, from its cached layout when there is one.
+     */
+    private int measureWidth(Element el) {
+        LineLayout cached = layouts.get(el);
+        if (cached != null) return cached.width;
+        int n = lineLength(el);
+        if (!loadText(el.getStartOffset(), n)) return 0;
+        int saved = tabBase;
+        tabBase = 0;
+        int x = 0;
+        for (int i = 0; i < n; i++) x += advance(segment.array[segment.offset + i], x);
+        tabBase = saved;
+        return x;
+    }
+
+    /**
+     * Find the widest lines. The longest lines are measured first; after
+     * that only lines long enough to beat the narrowest of those even at the
+     * widest advance (a tab, or a wide glyph) are measured.
+     */
+    private void findWidestLines() {
+        wideLines.clear();
+        Element root = getElement();
+        int count = root.getElementCount();
+        int[] longest = new int[WideLines.SIZE];
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int length = lineLength(root.getElement(i));
+            if (kept == longest.length && length <= lineLength(root.getElement(longest[kept - 1]))) continue;
+            int at = Math.min(kept, longest.length - 1);
+            while (at > 0 && lineLength(root.getElement(longest[at - 1])) < length) {
+                longest[at] = longest[at - 1];
+                at--;
+            }
+            longest[at] = i;
+            kept = Math.min(kept + 1, longest.length);
+        }
+        for (int k = 0; k < kept; k++) {
+            Element el = root.getElement(longest[k]);
+            wideLines.note(el, measureWidth(el));
+        }
+        long maxAdvance = Math.max(Math.max(charWidth, tabSize), metrics.getMaxAdvance());
+        for (int i = 0; i < count; i++) {
+            Element el = root.getElement(i);
+            if (wideLines.isFull() && lineLength(el) * maxAdvance <= wideLines.narrowest()) continue;
+            if (!wideLines.contains(el)) wideLines.note(el, measureWidth(el));
+        }
+        // Every line not kept was measured no wider than the narrowest kept, or ruled out by its length
+        wideLines.bound = wideLines.isFull() ? wideLines.narrowest() : 0;
+        wideLines.searched = true;
+    }
+
+    private boolean loadText(int offset, int length) {
+        try {
+            getDocument().getText(offset, length, segment);
+            return true;
+        } catch (BadLocationException e) {
+            segment.count = 0;
+            return false;
+        }
+    }
+
+    private int rowEnd(LineLayout layout, int row) {
+        return row + 1 < layout.rowCount ? layout.rowStarts[row + 1] : layout.length;
+    }
+
+    private int rowOf(LineLayout layout, int rel, Position.Bias bias) {
+        int lo = 0, hi = layout.rowCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (layout.rowStarts[mid] <= rel) lo = mid;
+            else hi = mid - 1;
+        }
+        if (bias == Position.Bias.Backward && lo > 0 && layout.rowStarts[lo] == rel) lo--;
+        return lo;
+    }
+
+    /**
+     * x of the character at rel, measured from the start of its row.
+     */
+    private int xAt(Element el, LineLayout layout, int row, int rel) {
+        int from = layout.rowStarts[row];
+        if (layout.uniform) return (rel - from) * charWidth;
+        int x = 0;
+        if (layout.runs != null) {
+            int k = layout.runs.runAt(rel);
+            from = layout.runs.starts[k];
+            x = layout.runs.xs[k];
+        }
+        if (rel > from && loadText(el.getStartOffset() + from, rel - from)) {
+            int saved = tabBase;
+            tabBase = 0;
+            for (int i = 0; i < segment.count; i++) x += advance(segment.array[segment.offset + i], x);
+            tabBase = saved;
+        }
+        return x;
+    }
+
+    /**
+     * Character offset within the line closest to x in the given row.
+     */
+    private int offsetAt(Element el, LineLayout layout, int row, float x) {
+        int start = layout.rowStarts[row];
+        int end = rowEnd(layout, row);
+        if (x <= 0) return start;
+        if (layout.uniform) return Math.min(end, start + Math.round(x / charWidth));
+
+        int from = start;
+        int cx = 0;
+        int chunk = end - from;
+        if (layout.runs != null) {
+            int k = upperBound(layout.runs.xs, layout.runs.count, (int) x) - 1;
+            from = layout.runs.starts[k];
+            cx = layout.runs.xs[k];
+            chunk = Math.min(end - from, layout.runs.lengths[k]);
+        }
+        int saved = tabBase;
+        tabBase = 0;
+        try {
+            if (!loadText(el.getStartOffset() + from, chunk)) return from;
+            for (int i = 0; i < segment.count; i++) {
+                int w = advance(segment.array[segment.offset + i], cx);
+                if (cx + w / 2f > x) return from + i;
+                cx += w;
+            }
+            return from + segment.count;
+        } finally {
+            tabBase = saved;
+        }
+    }
+
+    private static int upperBound(int[] values, int count, int key) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] <= key) lo = mid + 1;
+            else hi = mid;
+        }
+        return Math.max(1, lo);
+    }
+
+    private void scheduleHeightChange() {
+        if (heightChangePending) return;
+        heightChangePending = true;
+        SwingUtilities.invokeLater(() -> {
+            heightChangePending = false;
+            preferenceChanged(null, false, true);
+        });
+    }
+
+    // ---- View ----
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = alloc;
+        tabBase = alloc.x;
+
+        JTextComponent host = (JTextComponent) getContainer();
+        Highlighter h = host.getHighlighter();
+        LayeredHighlighter layered = h instanceof LayeredHighlighter ? (LayeredHighlighter) h : null;
+        g.setColor(host.isEnabled() ? host.getForeground() : host.getDisabledTextColor());
+
+        Element root = getElement();
+        int lineCount = root.getElementCount();
+        int firstRow = Math.max(0, (clip.y - alloc.y) / lineHeight);
+        int lastRow = (clip.y + clip.height - alloc.y - 1) / lineHeight;
+        int line = rowIndex.lineForRow(firstRow);
+        int rowBase = rowIndex.prefix(line);
+
+        for (; line < lineCount && rowBase <= lastRow; line++) {
+            Element el = root.getElement(line);
+            LineLayout layout = layout(line);
+            if (layered != null) {
+                int end = line == lineCount - 1 ? el.getEndOffset() : el.getEndOffset() - 1;
+                layered.paintLayeredHighlights(g, el.getStartOffset(), end, a, host, this);
+                g.setColor(host.isEnabled() ? host.getForeground() : host.getDisabledTextColor());
+            }
+            for (int r = Math.max(0, firstRow - rowBase); r < layout.rowCount && rowBase + r <= lastRow; r++) {
+                int y = alloc.y + (rowBase + r) * lineHeight + ascent;
+                paintRow(g, el, layout, r, alloc, clip, y);
+            }
+            rowBase += layout.rowCount;
+        }
+    }
+
+    private void paintRow(Graphics g, Element el, LineLayout layout, int row, Rectangle alloc, Rectangle clip, int y) {
+        int start = layout.rowStarts[row];
+        int end = rowEnd(layout, row);
+        if (end <= start) return;
+        if (!wrap && end - start > LONG_LINE_CHARS) {
+            // Only the horizontally visible slice of a long line is drawn
+            int visibleStart = Math.max(start, offsetAt(el, layout, row, clip.x - alloc.x) - 1);
+            int visibleEnd = Math.min(end, offsetAt(el, layout, row, clip.x + clip.width - alloc.x) + 1);
+            int x = alloc.x + xAt(el, layout, row, visibleStart);
+            start = visibleStart;
+            end = visibleEnd;
+            drawText(g, el.getStartOffset() + start, end - start, x, y);
+        } else {
+            drawText(g, el.getStartOffset() + start, end - start, alloc.x, y);
+        }
+    }
+
+    private void drawText(Graphics g, int offset, int length, int x, int y) {
+        if (length > 0 && loadText(offset, length)) {
+            Utilities.drawTabbedText(segment, (float) x, (float) y, (Graphics2D) g, this, offset);
+        }
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        if (axis == View.Y_AXIS) {
+            return (float) rowIndex.total() * lineHeight;
+        }
+        if (wrap) {
+            return wrapWidth == Integer.MAX_VALUE ? charWidth : wrapWidth;
+        }
+        if (!wideLines.searched) findWidestLines();
+        return (float) Math.max(wideLines.widest(), wideLines.bound) + 1;
+    }
+
+    @Override
+    public void setSize(float width, float height) {
+        int newWidth = Math.max(charWidth, (int) width);
+        if (wrap && newWidth != wrapWidth) {
+            wrapWidth = newWidth;
+            if (rowIndex != null) {
+                resetRows();
+                scheduleHeightChange();
+            }
+        } else {
+            wrapWidth = newWidth;
+        }
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        updateMetrics();
+        Document doc = getDocument();
+        if (pos < 0 || pos > doc.getLength()) {
+            throw new BadLocationException("Invalid offset", pos);
+        }
+        Rectangle alloc = a.getBounds();
+        Element root = getElement();
+        int line = root.getElementIndex(pos);
+        Element el = root.getElement(line);
+        LineLayout layout = layout(line);
+        int rel = Math.min(pos - el.getStartOffset(), layout.length);
+        int row = rowOf(layout, rel, b);
+        int y = alloc.y + (rowIndex.prefix(line) + row) * lineHeight;
+        int x = alloc.x + xAt(el, layout, row, rel);
+        return new Rectangle(x, y, 1, lineHeight);
+    }
+
+    @Override
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] biasReturn) {
+        updateMetrics();
+        biasReturn[0] = Position.Bias.Forward;
+        Rectangle alloc = a.getBounds();
+        Element root = getElement();
+        if (fy < alloc.y) return getStartOffset();
+        int row = (int) ((fy - alloc.y) / lineHeight);
+        if (row >= rowIndex.total()) return getDocument().getLength();
+
+        int line = rowIndex.lineForRow(row);
+        Element el = root.getElement(line);
+        LineLayout layout = layout(line);
+        int r = Math.min(layout.rowCount - 1, Math.max(0, row - rowIndex.prefix(line)));
+        int rel = offsetAt(el, layout, r, fx - alloc.x);
+        if (r < layout.rowCount - 1 && rel == rowEnd(layout, r)) {
+            biasReturn[0] = Position.Bias.Backward;
+        }
+        return el.getStartOffset() + rel;
+    }
+
+    @Override
+    public int getNextVisualPositionFrom(int pos, Position.Bias b, Shape a, int direction,
+                                         Position.Bias[] biasRet) throws BadLocationException {
+        if (pos == -1 || (direction != NORTH && direction != SOUTH)) {
+            return super.getNextVisualPositionFrom(pos, b, a, direction, biasRet);
+        }
+        // Vertical moves by geometry, instead of scanning a (possibly huge) row char by char
+        Rectangle r = modelToView(pos, a, b).getBounds();
+        Caret caret = ((JTextComponent) getContainer()).getCaret();
+        Point magic = caret == null ? null : caret.getMagicCaretPosition();
+        int x = magic != null ? magic.x : r.x;
+        int y = direction == NORTH ? r.y - lineHeight : r.y + lineHeight;
+        Rectangle alloc = a.getBounds();
+        if (y < alloc.y || y >= alloc.y + rowIndex.total() * lineHeight) {
+            biasRet[0] = b;
+            return pos;
+        }
+        return viewToModel(x, y + lineHeight / 2f, a, biasRet);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateDamage(e, e.getLength());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateDamage(e, -e.getLength());
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateDamage(e, 0);
+    }
+
+    /**
+     * @param delta characters inserted, or minus those removed
+     */
+    private void updateDamage(DocumentEvent e, int delta) {
+        if (rowIndex == null) return;
+        Element root = getElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        boolean trackWidth = !wrap && wideLines.searched;
+        if (change != null) {
+            Element[] removed = change.getChildrenRemoved();
+            Element[] added = change.getChildrenAdded();
+            int[] estimates = new int[added.length];
+            for (int i = 0; i < added.length; i++) estimates[i] = estimateRows(added[i]);
+            rowIndex.replace(change.getIndex(), removed.length, estimates);
+
+            for (Element line : removed) {
+                layouts.remove(line);
+                if (trackWidth) wideLines.remove(line);
+            }
+            if (trackWidth) {
+                for (Element line : added) wideLines.note(line, measureWidth(line));
+            }
+        } else {
+            int line = root.getElementIndex(e.getOffset());
+            Element el = root.getElement(line);
+            LineLayout layout = layouts.get(el);
+            if (layout != null && (delta == 0 || !relayout(el, layout, e.getOffset() - el.getStartOffset(), delta))) {
+                layouts.remove(el);
+                layout = null;
+            }
+            rowIndex.set(line, layout != null ? layout.rowCount : estimateRows(el));
+            if (trackWidth) wideLines.note(el, layout != null ? layout.width : layout(line).width);
+        }
+        if (trackWidth) {
+            // Once the kept lines are all narrower than the bound on the others, the
+            // bound stands in for the widest width until editing pauses
+            if (wideLines.widest() >= wideLines.bound) widthRescan.stop();
+            else widthRescan.restart();
+        }
+        preferenceChanged(null, true, true);
+        Component host = getContainer();
+        if (host != null) host.repaint();
+    }
+
+    /**
+     * The widest unwrapped lines by measured width, and an upper bound on the
+     * width of every other line. Edits keep both up to date a line at a time;
+     * the lines are only searched again once every kept line has shrunk below
+     * the bound or been removed.
+     */
+    private static final class WideLines {
+        static final int SIZE = 16;
+
+        private final Element[] lines = new Element[SIZE];
+        private final int[] widths = new int[SIZE];
+        private int count;
+        int bound;
+        boolean searched;
+
+        void clear() {
+            java.util.Arrays.fill(lines, null);
+            count = 0;
+            bound = 0;
+            searched = false;
+        }
+
+        boolean isFull() {
+            return count == SIZE;
+        }
+
+        boolean contains(Element line) {
+            return indexOf(line) >= 0;
+        }
+
+        void note(Element line, int width) {
+            int i = indexOf(line);
+            if (i >= 0) {
+                widths[i] = width;
+            } else if (count < SIZE) {
+                lines[count] = line;
+                widths[count++] = width;
+            } else {
+                int n = narrowestIndex();
+                if (width > widths[n]) {
+                    bound = Math.max(bound, widths[n]);
+                    lines[n] = line;
+                    widths[n] = width;
+                } else {
+                    bound = Math.max(bound, width);
+                }
+            }
+        }
+
+        void remove(Element line) {
+            int i = indexOf(line);
+            if (i < 0) return;
+            lines[i] = lines[--count];
+            widths[i] = widths[count];
+            lines[count] = null;
+        }
+
+        int widest() {
+            int max = 0;
+            for (int i = 0; i < count; i++) max = Math.max(max, widths[i]);
+            return max;
+        }
+
+        int narrowest() {
+            return count == 0 ? 0 : widths[narrowestIndex()];
+        }
+
+        private int narrowestIndex() {
+            int n = 0;
+            for (int i = 1; i < count; i++) {
+                if (widths[i] < widths[n]) n = i;
+            }
+            return n;
+        }
+
+        private int indexOf(Element line) {
+            for (int i = 0; i < count; i++) {
+                if (lines[i] == line) return i;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Per-line row counts, kept in blocks of up to 2 * BLOCK lines with a
+     * Fenwick tree over the block totals. Adding or removing lines touches
+     * one block and re-indexes the blocks, O(BLOCK + lines / BLOCK), instead
+     * of shifting and rebuilding an index over every line.
+     */
+    private static final class RowIndex {
+        private static final int BLOCK = 1024;
+
+        private int[][] blocks;
+        private int[] blockSizes;
+        private int[] blockRows;
+        private int blockCount;
+        // First line of each block, blockCount + 1 entries
+        private int[] firstLines;
+        // Fenwick tree over the row totals of the blocks
+        private int[] tree;
+        private int size;
+
+        RowIndex(int[] values, int size) {
+            load(values, size);
+        }
+
+        private void load(int[] values, int count) {
+            blockCount = Math.max(1, (count + BLOCK - 1) / BLOCK);
+            blocks = new int[blockCount][];
+            blockSizes = new int[blockCount];
+            blockRows = new int[blockCount];
+            for (int b = 0; b < blockCount; b++) {
+                int from = b * BLOCK;
+                int n = Math.max(0, Math.min(BLOCK, count - from));
+                blocks[b] = new int[2 * BLOCK];
+                System.arraycopy(values, from, blocks[b], 0, n);
+                blockSizes[b] = n;
+                blockRows[b] = sum(blocks[b], 0, n);
+            }
+            reindex();
+        }
+
+        private void reindex() {
+            firstLines = new int[blockCount + 1];
+            tree = new int[blockCount + 1];
+            for (int b = 0; b < blockCount; b++) {
+                firstLines[b + 1] = firstLines[b] + blockSizes[b];
+                tree[b + 1] += blockRows[b];
+                int parent = (b + 1) + ((b + 1) & -(b + 1));
+                if (parent <= blockCount) tree[parent] += tree[b + 1];
+            }
+            size = firstLines[blockCount];
+        }
+
+        private static int sum(int[] values, int from, int to) {
+            int sum = 0;
+            for (int i = from; i < to; i++) sum += values[i];
+            return sum;
+        }
+
+        private int blockOf(int index) {
+            int lo = 0, hi = blockCount - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (firstLines[mid] <= index) lo = mid;
+                else hi = mid - 1;
+            }
+            return lo;
+        }
+
+        private int blockPrefix(int block) {
+            int sum = 0;
+            for (int i = block; i > 0; i -= i & -i) sum += tree[i];
+            return sum;
+        }
+
+        /**
+         * Set the row count of a line.
+         * @return whether it changed
+         */
+        boolean set(int index, int rows) {
+            int b = blockOf(index);
+            int i = index - firstLines[b];
+            int delta = rows - blocks[b][i];
+            if (delta == 0) return false;
+            blocks[b][i] = rows;
+            blockRows[b] += delta;
+            for (int k = b + 1; k <= blockCount; k += k & -k) tree[k] += delta;
+            return true;
+        }
+
+        /**
+         * Replace the row counts of lines [index, index + removed) with added.
+         */
+        void replace(int index, int removed, int[] added) {
+            int b = blockOf(index);
+            int at = index - firstLines[b];
+            // Remove, possibly running on into following blocks
+            int block = b;
+            int from = at;
+            int remaining = removed;
+            while (remaining > 0 && block < blockCount) {
+                int take = Math.min(remaining, blockSizes[block] - from);
+                blockRows[block] -= sum(blocks[block], from, from + take);
+                System.arraycopy(blocks[block], from + take, blocks[block], from, blockSizes[block] - from - take);
+                blockSizes[block] -= take;
+                remaining -= take;
+                block++;
+                from = 0;
+            }
+            insert(b, at, added);
+
+            // Drop emptied blocks, but always keep one
+            int kept = 0;
+            for (int k = 0; k < blockCount; k++) {
+                if (blockSizes[k] > 0 || (kept == 0 && k == blockCount - 1)) {
+                    blocks[kept] = blocks[k];
+                    blockRows[kept] = blockRows[k];
+                    blockSizes[kept++] = blockSizes[k];
+                }
+            }
+            blockCount = kept;
+            reindex();
+            // Many small edits can leave many short blocks; repack now and then
+            if (blockCount > 4 * (size / BLOCK + 1)) {
+                int[] all = new int[size];
+                for (int k = 0, n = 0; k < blockCount; n += blockSizes[k++]) {
+                    System.arraycopy(blocks[k], 0, all, n, blockSizes[k]);
+                }
+                load(all, size);
+            }
+        }
+
+        private void insert(int b, int at, int[] added) {
+            int n = blockSizes[b];
+            if (n + added.length <= blocks[b].length) {
+                System.arraycopy(blocks[b], at, blocks[b], at + added.length, n - at);
+                System.arraycopy(added, 0, blocks[b], at, added.length);
+                blockSizes[b] = n + added.length;
+                blockRows[b] += sum(added, 0, added.length);
+                return;
+            }
+            // Split the overfull block into blocks of BLOCK lines
+            int[] merged = new int[n + added.length];
+            System.arraycopy(blocks[b], 0, merged, 0, at);
+            System.arraycopy(added, 0, merged, at, added.length);
+            System.arraycopy(blocks[b], at, merged, at + added.length, n - at);
+            int pieces = (merged.length + BLOCK - 1) / BLOCK;
+            if (blockCount + pieces - 1 > blocks.length) {
+                int capacity = Math.max(blocks.length * 2, blockCount + pieces);
+                blocks = java.util.Arrays.copyOf(blocks, capacity);
+                blockSizes = java.util.Arrays.copyOf(blockSizes, capacity);
+                blockRows = java.util.Arrays.copyOf(blockRows, capacity);
+            }
+            System.arraycopy(blocks, b + 1, blocks, b + pieces, blockCount - b - 1);
+            System.arraycopy(blockSizes, b + 1, blockSizes, b + pieces, blockCount - b - 1);
+            System.arraycopy(blockRows, b + 1, blockRows, b + pieces, blockCount - b - 1);
+            for (int p = 0; p < pieces; p++) {
+                int from = p * BLOCK;
+                int len = Math.min(BLOCK, merged.length - from);
+                blocks[b + p] = new int[2 * BLOCK];
+                System.arraycopy(merged, from, blocks[b + p], 0, len);
+                blockSizes[b + p] = len;
+                blockRows[b + p] = sum(merged, from, from + len);
+            }
+            blockCount += pieces - 1;
+        }
+
+        /** Sum of the row counts of lines [0, index). */
+        int prefix(int index) {
+            if (index >= size) return total();
+            int b = blockOf(index);
+            int sum = blockPrefix(b);
+            for (int i = firstLines[b]; i < index; i++) sum += blocks[b][i - firstLines[b]];
+            return sum;
+        }
+
+        int total() {
+            return blockPrefix(blockCount);
+        }
+
+        /** Line containing the given row. */
+        int lineForRow(int row) {
+            int pos = 0;
+            int remaining = row;
+            for (int step = Integer.highestOneBit(blockCount); step > 0; step >>= 1) {
+                if (pos + step <= blockCount && tree[pos + step] <= remaining) {
+                    pos += step;
+                    remaining -= tree[pos];
+                }
+            }
+            if (pos >= blockCount) return Math.max(0, size - 1);
+            int[] block = blocks[pos];
+            for (int i = 0; i < blockSizes[pos]; i++) {
+                if (remaining < block[i]) return firstLines[pos] + i;
+                remaining -= block[i];
+            }
+            return Math.max(0, Math.min(firstLines[pos + 1], size) - 1);
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[8];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) values = java.util.Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return java.util.Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package app;
+
+import model.SearchHit;
+import service.FolderSearchService;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * "Find in Folder" dialog: runs a {@link FolderSearchService} search and
+ * streams hits into a list as they arrive. Double-click or Enter opens a hit.
+ */
+public class FindInFolderDialog extends JDialog {
+
+    private final FolderSearchService searchService;
+    private final Consumer<SearchHit> openHit;
+
+    private final JTextField folderField = new JTextField(30);
+    private final JTextField queryField = new JTextField(30);
+    private final JCheckBox regexBox = new JCheckBox("Regex");
+    private final JCheckBox matchCaseBox = new JCheckBox("Match case");
+    private final JButton searchButton = new JButton("Search");
+    private final JButton cancelButton = new JButton("Cancel");
+    private final DefaultListModel<SearchHit> resultModel = new DefaultListModel<>();
+    private final JList<SearchHit> resultList = new JList<>(resultModel);
+    private final JLabel statusLabel = new JLabel(" ");
+
+    private SearchWorker worker;
+
+    public FindInFolderDialog(JFrame owner, FolderSearchService searchService, Consumer<SearchHit> openHit) {
+        super(owner, "Find in Folder", false);
+        this.searchService = searchService;
+        this.openHit = openHit;
+
+        folderField.setText(System.getProperty("user.dir"));
+        JButton browseButton = new JButton("Browse...");
+        browseButton.addActionListener(e -> chooseFolder());
+
+        JPanel form = new JPanel(new GridBagLayout());
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(4, 4, 4, 4);
+        c.anchor = GridBagConstraints.WEST;
+        c.gridx = 0; c.gridy = 0;
+        form.add(new JLabel("Folder:"), c);
+        c.gridx = 1; c.fill = GridBagConstraints.HORIZONTAL; c.weightx = 1;
+        form.add(folderField, c);
+        c.gridx = 2; c.fill = GridBagConstraints.NONE; c.weightx = 0;
+        form.add(browseButton, c);
+        c.gridx = 0; c.gridy = 1;
+        form.add(new JLabel("Find:"), c);
+        c.gridx = 1; c.fill = GridBagConstraints.HORIZONTAL; c.weightx = 1;
+        form.add(queryField, c);
+        c.gridx = 2; c.fill = GridBagConstraints.NONE; c.weightx = 0;
+        form.add(searchButton, c);
+        JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        options.add(regexBox);
+        options.add(matchCaseBox);
+        c.gridx = 1; c.gridy = 2;
+        form.add(options, c);
+        c.gridx = 2;
+        form.add(cancelButton, c);
+
+        resultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        resultList.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        add(form, BorderLayout.NORTH);
+        add(new JScrollPane(resultList), BorderLayout.CENTER);
+        add(statusLabel, BorderLayout.SOUTH);
+
+        setupListeners();
+        cancelButton.setEnabled(false);
+        getRootPane().setDefaultButton(searchButton);
+
+        setSize(800, 500);
+        setLocationRelativeTo(owner);
+    }
+
+    private void setupListeners() {
+        searchButton.addActionListener(e -> startSearch());
+        cancelButton.addActionListener(e -> cancelSearch());
+
+        resultList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) openSelectedHit();
+            }
+        });
+        resultList.getInputMap(JComponent.WHEN_FOCUSED)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "openHit");
+        resultList.getActionMap().put("openHit", new AbstractAction() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                openSelectedHit();
+            }
+        });
+    }
+
+    private void chooseFolder() {
+        JFileChooser chooser = new JFileChooser(folderField.getText());
+        chooser.setDialogTitle("Choose Folder");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            folderField.setText(chooser.getSelectedFile().getAbsolutePath());
+        }
+    }
+
+    private void startSearch() {
+        cancelSearch();
+        File root = new File(folderField.getText().trim());
+        String query = queryField.getText();
+        if (!root.isDirectory()) {
+            JOptionPane.showMessageDialog(this, "Not a folder: " + root, "Find in Folder", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if (query.isEmpty()) return;
+
+        SearchWorker next = new SearchWorker();
+        try {
+            next.task = searchService.search(root, query, regexBox.isSelected(), matchCaseBox.isSelected(), next::report);
+        } catch (PatternSyntaxException ex) {
+            JOptionPane.showMessageDialog(this, "Invalid regex: " + ex.getDescription(), "Find in Folder", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        resultModel.clear();
+        statusLabel.setText("Searching...");
+        searchButton.setEnabled(false);
+        cancelButton.setEnabled(true);
+        worker = next;
+        worker.execute();
+    }
+
+    private void cancelSearch() {
+        if (worker != null && !worker.isDone()) {
+            worker.task.cancel();
+            worker.cancel(true);
+        }
+    }
+
+    private void openSelectedHit() {
+        SearchHit hit = resultList.getSelectedValue();
+        if (hit != null) openHit.accept(hit);
+    }
+
+    @Override
+    public void dispose() {
+        cancelSearch();
+        super.dispose();
+    }
+
+    /**
+     * Waits for the search off the EDT; publish() coalesces hits so the list
+     * is updated in batches instead of one event per hit.
+     */
+    private class SearchWorker extends SwingWorker<Void, SearchHit> {
+        private volatile FolderSearchService.SearchTask task;
+
+        void report(SearchHit hit) {
+            if (!isCancelled()) publish(hit);
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            task.await();
+            return null;
+        }
+
+        @Override
+        protected void process(List<SearchHit> hits) {
+            if (worker != this) return;
+            for (SearchHit hit : hits) resultModel.addElement(hit);
+            statusLabel.setText("Searching... " + resultModel.size() + " hits");
+        }
+
+        @Override
+        protected void done() {
+            if (worker != this) return;
+            searchButton.setEnabled(true);
+            cancelButton.setEnabled(false);
+            String suffix;
+            try {
+                get();
+                suffix = task.isCancelled() ? " (cancelled)" : "";
+            } catch (CancellationException | InterruptedException e) {
+                suffix = " (cancelled)";
+            } catch (java.util.concurrent.ExecutionException e) {
+                suffix = " (error: " + e.getCause().getMessage() + ")";
+            }
+            statusLabel.setText(resultModel.size() + " hits" + suffix);
+        }
+    }
+}
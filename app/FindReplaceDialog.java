@@ -0,0 +1,384 @@
+package app;
+
+import service.DocumentSearchEngine;
+import service.DocumentSearchEngine.Matches;
+import service.UndoHistory;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.geom.Point2D;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Find/Replace dialog for the editor. Searching and Replace All run on
+ * SwingWorkers through {@link DocumentSearchEngine}; matches are highlighted
+ * as each segment finishes, starting with the visible part of the document.
+ */
+public class FindReplaceDialog extends JDialog {
+
+    private final JTextArea editor;
+    private final UndoHistory undoHistory;
+    private final MatchHighlightPainter painter = new MatchHighlightPainter(new Color(255, 230, 120));
+
+    private final JTextField findField = new JTextField(30);
+    private final JTextField replaceField = new JTextField(30);
+    private final JCheckBox regexBox = new JCheckBox("Regex");
+    private final JCheckBox matchCaseBox = new JCheckBox("Match case");
+    private final JButton findNextButton = new JButton("Find Next");
+    private final JButton findPreviousButton = new JButton("Find Previous");
+    private final JButton replaceButton = new JButton("Replace");
+    private final JButton replaceAllButton = new JButton("Replace All");
+    private final JButton cancelButton = new JButton("Cancel");
+    private final JLabel statusLabel = new JLabel(" ");
+
+    private Object highlightTag;
+    private DocumentSearchEngine engine;
+    private String searchedKey;
+    private boolean searchComplete;
+    private SwingWorker<?, ?> worker;
+    private final DocumentListener staleListener = new DocumentListener() {
+        @Override public void insertUpdate(DocumentEvent e) { invalidateResults(); }
+        @Override public void removeUpdate(DocumentEvent e) { invalidateResults(); }
+        @Override public void changedUpdate(DocumentEvent e) { }
+    };
+
+    public FindReplaceDialog(JFrame owner, JTextArea editor, UndoHistory undoHistory) {
+        super(owner, "Find / Replace", false);
+        this.editor = editor;
+        this.undoHistory = undoHistory;
+
+        JPanel form = new JPanel(new GridBagLayout());
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(4, 4, 4, 4);
+        c.anchor = GridBagConstraints.WEST;
+        c.gridx = 0; c.gridy = 0;
+        form.add(new JLabel("Find:"), c);
+        c.gridx = 1; c.fill = GridBagConstraints.HORIZONTAL; c.weightx = 1;
+        form.add(findField, c);
+        c.gridx = 0; c.gridy = 1; c.fill = GridBagConstraints.NONE; c.weightx = 0;
+        form.add(new JLabel("Replace:"), c);
+        c.gridx = 1; c.fill = GridBagConstraints.HORIZONTAL; c.weightx = 1;
+        form.add(replaceField, c);
+        JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        options.add(regexBox);
+        options.add(matchCaseBox);
+        c.gridy = 2;
+        form.add(options, c);
+
+        JPanel buttons = new JPanel(new GridLayout(0, 1, 4, 4));
+        buttons.add(findNextButton);
+        buttons.add(findPreviousButton);
+        buttons.add(replaceButton);
+        buttons.add(replaceAllButton);
+        buttons.add(cancelButton);
+
+        JPanel content = new JPanel(new BorderLayout(8, 8));
+        content.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        content.add(form, BorderLayout.CENTER);
+        content.add(buttons, BorderLayout.EAST);
+        content.add(statusLabel, BorderLayout.SOUTH);
+        setContentPane(content);
+
+        setupListeners();
+        cancelButton.setEnabled(false);
+        getRootPane().setDefaultButton(findNextButton);
+
+        pack();
+        setLocationRelativeTo(owner);
+    }
+
+    private void setupListeners() {
+        findNextButton.addActionListener(e -> findNext(true));
+        findPreviousButton.addActionListener(e -> findNext(false));
+        replaceButton.addActionListener(e -> replaceCurrent());
+        replaceAllButton.addActionListener(e -> replaceAll());
+        cancelButton.addActionListener(e -> cancelWorker());
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                clearHighlights();
+            }
+        });
+    }
+
+    @Override
+    public void setVisible(boolean visible) {
+        if (visible) {
+            String selected = editor.getSelectedText();
+            if (selected != null && !selected.isEmpty() && selected.indexOf('\n') < 0) {
+                findField.setText(selected);
+            }
+            findField.selectAll();
+        }
+        super.setVisible(visible);
+    }
+
+    @Override
+    public void dispose() {
+        clearHighlights();
+        super.dispose();
+    }
+
+    private void findNext(boolean forward) {
+        if (!ensureEngine()) return;
+        if (currentKey().equals(searchedKey)) {
+            selectMatch(forward);
+            return;
+        }
+        startSearch(forward);
+    }
+
+    private void startSearch(boolean selectForward) {
+        cancelWorker();
+        clearHighlights();
+        Document doc = editor.getDocument();
+        highlightTag = addHighlight();
+        doc.addDocumentListener(staleListener);
+        searchedKey = currentKey();
+        searchComplete = false;
+
+        int priorityOffset = visibleStartOffset();
+        DocumentSearchEngine searchEngine = engine;
+        SwingWorker<Matches, Matches> searchWorker = new SwingWorker<>() {
+            private boolean selected;
+
+            @Override
+            protected Matches doInBackground() {
+                return searchEngine.findAll(doc, priorityOffset, this::publish, this::isCancelled);
+            }
+
+            @Override
+            protected void process(List<Matches> batches) {
+                if (worker != this) return;
+                for (Matches batch : batches) painter.addBatch(batch);
+                if (!selected && painter.findNext(editor.getSelectionEnd()) != null) {
+                    selected = true;
+                    selectMatch(selectForward);
+                }
+                statusLabel.setText("Searching... " + painter.getMatchCount() + " matches");
+                editor.repaint();
+            }
+
+            @Override
+            protected void done() {
+                if (worker != this) return;
+                setBusy(false);
+                try {
+                    Matches all = get();
+                    if (all == null) {
+                        clearHighlights();
+                        statusLabel.setText("Text changed during search; search again");
+                        return;
+                    }
+                    painter.setMatches(all);
+                    searchComplete = true;
+                    statusLabel.setText(all.size() + " matches");
+                    if (!selected && all.size() > 0) selectMatch(selectForward);
+                    editor.repaint();
+                } catch (java.util.concurrent.CancellationException | InterruptedException e) {
+                    statusLabel.setText("Search cancelled");
+                } catch (ExecutionException e) {
+                    statusLabel.setText("Error: " + e.getCause().getMessage());
+                }
+            }
+        };
+        runWorker(searchWorker, "Searching...");
+    }
+
+    private void selectMatch(boolean forward) {
+        int[] match = forward ? painter.findNext(editor.getSelectionEnd()) : painter.findPrevious(editor.getSelectionStart());
+        if (match == null && searchComplete) {
+            // Wrap around
+            match = forward ? painter.findNext(0) : painter.findPrevious(editor.getDocument().getLength() + 1);
+        }
+        if (match == null) {
+            if (searchComplete) statusLabel.setText("No matches");
+            return;
+        }
+        editor.select(match[0], match[1]);
+        editor.getCaret().setSelectionVisible(true);
+    }
+
+    private void replaceCurrent() {
+        if (!ensureEngine() || !checkEditable()) return;
+        String selected = editor.getSelectedText();
+        if (selected != null && currentKey().equals(searchedKey)
+                && painter.isMatch(editor.getSelectionStart(), editor.getSelectionEnd())) {
+            String replacement = engine.replacementFor(selected, replaceField.getText());
+            if (replacement != null) replaceMatch(replacement);
+        }
+        findNext(true);
+    }
+
+    /**
+     * Replace the selected match and keep the other results: later matches
+     * shift by the change in length and only the edited lines are searched
+     * again, since the replacement may create or break a match there.
+     */
+    private void replaceMatch(String replacement) {
+        Document doc = editor.getDocument();
+        int start = editor.getSelectionStart();
+        int end = editor.getSelectionEnd();
+        Element root = doc.getDefaultRootElement();
+        int from = root.getElement(root.getElementIndex(start)).getStartOffset();
+        int to = Math.min(doc.getLength(), root.getElement(root.getElementIndex(end)).getEndOffset());
+        int delta = replacement.length() - (end - start);
+
+        doc.removeDocumentListener(staleListener);
+        try {
+            editor.replaceSelection(replacement);
+        } finally {
+            doc.addDocumentListener(staleListener);
+        }
+        editor.setCaretPosition(start + replacement.length());
+
+        Matches rescanned = engine.findInRange(doc, from, to + delta);
+        if (!searchComplete || !painter.splice(from, to, delta, rescanned)) {
+            invalidateResults();
+            return;
+        }
+        statusLabel.setText(painter.getMatchCount() + " matches");
+        editor.repaint();
+    }
+
+    private void replaceAll() {
+        if (!ensureEngine() || !checkEditable()) return;
+        cancelWorker();
+        clearHighlights();
+        Document doc = editor.getDocument();
+        DocumentSearchEngine searchEngine = engine;
+        String replacement = replaceField.getText();
+        SwingWorker<DocumentSearchEngine.Replacement, Void> replaceWorker = new SwingWorker<>() {
+            @Override
+            protected DocumentSearchEngine.Replacement doInBackground() {
+                return searchEngine.prepareReplaceAll(doc, replacement, this::isCancelled);
+            }
+
+            @Override
+            protected void done() {
+                if (worker != this) return;
+                setBusy(false);
+                try {
+                    DocumentSearchEngine.Replacement result = get();
+                    if (result == null) {
+                        statusLabel.setText("No matches");
+                    } else if (!checkEditable()) {
+                        result.discard();
+                    } else if (applyAsOneStep(result)) {
+                        editor.setCaretPosition(result.getOffset());
+                        statusLabel.setText("Replaced " + result.getCount() + " matches");
+                    } else {
+                        statusLabel.setText("Text changed during Replace All; nothing replaced");
+                    }
+                } catch (java.util.concurrent.CancellationException | InterruptedException e) {
+                    statusLabel.setText("Replace All cancelled");
+                } catch (ExecutionException | BadLocationException e) {
+                    statusLabel.setText("Error: " + e.getMessage());
+                }
+            }
+        };
+        runWorker(replaceWorker, "Replacing...");
+    }
+
+    /**
+     * Replace All is applied as several edits; undo takes them back together.
+     */
+    private boolean applyAsOneStep(DocumentSearchEngine.Replacement result) throws BadLocationException {
+        undoHistory.beginCompound();
+        try {
+            return result.apply();
+        } finally {
+            undoHistory.endCompound();
+        }
+    }
+
+    private boolean ensureEngine() {
+        if (findField.getText().isEmpty()) return false;
+        if (engine != null && currentKey().equals(searchedKey)) return true;
+        try {
+            engine = new DocumentSearchEngine(findField.getText(), regexBox.isSelected(), matchCaseBox.isSelected());
+            searchedKey = null;
+            return true;
+        } catch (PatternSyntaxException e) {
+            statusLabel.setText("Invalid regex: " + e.getDescription());
+            return false;
+        }
+    }
+
+    /**
+     * The editor is read-only while a large paste streams in; replacing
+     * text under it would break the insert's offsets.
+     */
+    private boolean checkEditable() {
+        if (editor.isEditable()) return true;
+        statusLabel.setText("The editor is read-only; try again when the insert has finished");
+        return false;
+    }
+
+    private String currentKey() {
+        return regexBox.isSelected() + ":" + matchCaseBox.isSelected() + ":" + findField.getText();
+    }
+
+    private int visibleStartOffset() {
+        Rectangle visible = editor.getVisibleRect();
+        return editor.getUI().viewToModel2D(editor, new Point2D.Double(visible.x, visible.y), null);
+    }
+
+    private Object addHighlight() {
+        try {
+            return editor.getHighlighter().addHighlight(0, editor.getDocument().getLength(), painter);
+        } catch (BadLocationException e) {
+            return null;
+        }
+    }
+
+    private void runWorker(SwingWorker<?, ?> next, String status) {
+        worker = next;
+        setBusy(true);
+        statusLabel.setText(status);
+        next.execute();
+    }
+
+    private void cancelWorker() {
+        if (worker != null && !worker.isDone()) {
+            worker.cancel(true);
+            setBusy(false);
+            statusLabel.setText("Cancelled");
+        }
+        worker = null;
+    }
+
+    private void setBusy(boolean busy) {
+        replaceButton.setEnabled(!busy);
+        replaceAllButton.setEnabled(!busy);
+        cancelButton.setEnabled(busy);
+    }
+
+    private void invalidateResults() {
+        cancelWorker();
+        clearHighlights();
+        statusLabel.setText(" ");
+    }
+
+    private void clearHighlights() {
+        editor.getDocument().removeDocumentListener(staleListener);
+        if (highlightTag != null) {
+            editor.getHighlighter().removeHighlight(highlightTag);
+            highlightTag = null;
+        }
+        painter.clear();
+        searchedKey = null;
+        searchComplete = false;
+        editor.repaint();
+    }
+}
@@ -0,0 +1,129 @@
+package app;
+
+import service.DocumentSearchEngine.Matches;
+
+import javax.swing.plaf.TextUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Paints search matches using one highlight for the whole document instead of
+ * one per match. Only matches inside the clip are looked up and painted, so
+ * the cost of a repaint depends on the visible area, not on the match count.
+ */
+public class MatchHighlightPainter implements Highlighter.HighlightPainter {
+
+    private final Color color;
+    private final List<Matches> batches = new ArrayList<>();
+
+    public MatchHighlightPainter(Color color) {
+        this.color = color;
+    }
+
+    public void addBatch(Matches batch) {
+        batches.add(batch);
+    }
+
+    public void setMatches(Matches matches) {
+        batches.clear();
+        if (matches != null) batches.add(matches);
+    }
+
+    /**
+     * Carry complete results across one edit; see {@link Matches#splice}.
+     * @return false if the matches are still split into search batches
+     */
+    public boolean splice(int from, int to, int delta, Matches rescanned) {
+        if (batches.size() != 1) return false;
+        batches.get(0).splice(from, to, delta, rescanned);
+        return true;
+    }
+
+    public void clear() {
+        batches.clear();
+    }
+
+    public int getMatchCount() {
+        int count = 0;
+        for (Matches batch : batches) count += batch.size();
+        return count;
+    }
+
+    /**
+     * @return {start, end} of the first match starting at or after offset, or null
+     */
+    public int[] findNext(int offset) {
+        int[] best = null;
+        for (Matches batch : batches) {
+            int i = batch.indexAtOrAfter(offset);
+            if (i < batch.size() && (best == null || batch.getStart(i) < best[0])) {
+                best = new int[] {batch.getStart(i), batch.getEnd(i)};
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return {start, end} of the last match starting before offset, or null
+     */
+    public int[] findPrevious(int offset) {
+        int[] best = null;
+        for (Matches batch : batches) {
+            int i = batch.indexAtOrAfter(offset) - 1;
+            if (i >= 0 && (best == null || batch.getStart(i) > best[0])) {
+                best = new int[] {batch.getStart(i), batch.getEnd(i)};
+            }
+        }
+        return best;
+    }
+
+    public boolean isMatch(int start, int end) {
+        for (Matches batch : batches) {
+            int i = batch.indexAtOrAfter(start);
+            if (i < batch.size() && batch.getStart(i) == start && batch.getEnd(i) == end) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void paint(Graphics g, int p0, int p1, Shape bounds, JTextComponent c) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null || batches.isEmpty()) return;
+
+        TextUI ui = c.getUI();
+        int first = ui.viewToModel2D(c, new Point2D.Double(clip.x, clip.y), null);
+        int last = ui.viewToModel2D(c, new Point2D.Double(clip.x + clip.width, clip.y + clip.height), null);
+        Rectangle area = bounds.getBounds();
+        g.setColor(color);
+        try {
+            for (Matches batch : batches) {
+                // Step back one match so a match that starts above the clip but reaches into it is still painted
+                for (int i = Math.max(0, batch.indexAtOrAfter(first) - 1); i < batch.size() && batch.getStart(i) <= last; i++) {
+                    paintMatch(g, ui, c, batch.getStart(i), batch.getEnd(i), area);
+                }
+            }
+        } catch (BadLocationException ignored) {
+            // The document changed underneath us; the owner clears stale matches
+        }
+    }
+
+    private void paintMatch(Graphics g, TextUI ui, JTextComponent c, int start, int end, Rectangle area)
+            throws BadLocationException {
+        int length = c.getDocument().getLength();
+        if (end > length) return;
+        Rectangle2D r0 = ui.modelToView2D(c, start, javax.swing.text.Position.Bias.Forward);
+        Rectangle2D r1 = ui.modelToView2D(c, end, javax.swing.text.Position.Bias.Backward);
+        if (r0.getY() == r1.getY()) {
+            g.fillRect((int) r0.getX(), (int) r0.getY(), Math.max(1, (int) (r1.getX() - r0.getX())), (int) r0.getHeight());
+        } else {
+            // Multi-line match: mark to the end of its first line
+            g.fillRect((int) r0.getX(), (int) r0.getY(), area.x + area.width - (int) r0.getX(), (int) r0.getHeight());
+        }
+    }
+}
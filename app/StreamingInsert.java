@@ -0,0 +1,288 @@
+package app;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.awt.GraphicsEnvironment;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Inserts pasted or dropped text of any size without blocking the EDT.
+ * Demonstrates: SwingWorker, Streaming I/O, Backpressure
+ *
+ * Text is read from the transferable (or files) on a worker thread in fixed
+ * chunks and each chunk is inserted on the EDT, so the UI keeps painting and
+ * a ProgressMonitor can cancel. Only a few chunks are in flight at once, so
+ * memory stays bounded however large the source is. A cancelled or failed
+ * insert is rolled back. Input that fits in one chunk is inserted at once.
+ */
+public class StreamingInsert extends SwingWorker<Void, String> {
+
+    private static final int CHUNK_SIZE = 128 * 1024;
+    private static final int CHUNKS_IN_FLIGHT = 2;
+    private static final int PROGRESS_SCALE = 1000;
+
+    private final JTextArea editor;
+    private final ChunkReader source;
+    private final long estimatedLength;
+    private final Consumer<Boolean> onFinished;
+    private final Semaphore inFlight = new Semaphore(CHUNKS_IN_FLIGHT);
+    private final ProgressMonitor monitor;
+    private final boolean wasEditable;
+
+    private final int start;
+    private final String replaced;
+    private int inserted;
+    private boolean finished;
+
+    private StreamingInsert(JTextArea editor, ChunkReader source, String firstChunk, long estimatedLength,
+                            String description, Consumer<Boolean> onFinished) {
+        this.editor = editor;
+        this.source = source;
+        this.estimatedLength = estimatedLength;
+        this.onFinished = onFinished;
+        this.start = editor.getSelectionStart();
+        this.replaced = editor.getSelectedText();
+        this.wasEditable = editor.isEditable();
+
+        editor.replaceSelection(firstChunk);
+        inserted = firstChunk.length();
+        editor.setEditable(false);
+
+        monitor = new ProgressMonitor(editor, "Inserting " + description, "", 0, PROGRESS_SCALE);
+        monitor.setMillisToDecideToPopup(100);
+        monitor.setMillisToPopup(300);
+        // There is no dialog to show without a display, e.g. in the latency harness
+        if (GraphicsEnvironment.isHeadless()) monitor.setMillisToDecideToPopup(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Insert the text of a transferable at the caret, replacing the selection.
+     * @param onFinished called on the EDT with whether the insert completed
+     * @return the running insert, or null if the text was inserted at once
+     */
+    public static StreamingInsert insertText(JTextArea editor, Transferable transferable,
+                                             Consumer<Boolean> onFinished) throws IOException, UnsupportedFlavorException {
+        Reader reader = openReader(transferable);
+        return reader == null ? null : start(editor, reader, -1, "pasted text", onFinished);
+    }
+
+    /**
+     * Insert the contents of files, one after another, at the caret.
+     * @return the running insert, or null if the text was inserted at once
+     */
+    public static StreamingInsert insertFiles(JTextArea editor, List<File> files,
+                                              Consumer<Boolean> onFinished) throws IOException {
+        List<InputStream> streams = new ArrayList<>();
+        long length = 0;
+        try {
+            for (File file : files) {
+                streams.add(new FileInputStream(file));
+                length += file.length();
+            }
+        } catch (IOException e) {
+            for (InputStream stream : streams) stream.close();
+            throw e;
+        }
+        Reader reader = new InputStreamReader(new SequenceInputStream(Collections.enumeration(streams)),
+                Charset.defaultCharset());
+        String description = files.size() == 1 ? files.get(0).getName() : files.size() + " files";
+        return start(editor, reader, length, description, onFinished);
+    }
+
+    private static StreamingInsert start(JTextArea editor, Reader reader, long estimatedLength,
+                                         String description, Consumer<Boolean> onFinished) throws IOException {
+        ChunkReader source = new ChunkReader(reader);
+        String first;
+        try {
+            first = source.next();
+        } catch (IOException e) {
+            source.close();
+            throw e;
+        }
+        if (first == null || !source.hasMore()) {
+            source.close();
+            if (first != null) editor.replaceSelection(first);
+            return null;
+        }
+        StreamingInsert insert = new StreamingInsert(editor, source, first, estimatedLength, description, onFinished);
+        insert.execute();
+        return insert;
+    }
+
+    /**
+     * Prefer a plain-text reader so that large clipboard contents are never
+     * materialized as one String; fall back to the string flavor.
+     */
+    private static Reader openReader(Transferable transferable) throws IOException, UnsupportedFlavorException {
+        List<DataFlavor> plain = new ArrayList<>();
+        for (DataFlavor flavor : transferable.getTransferDataFlavors()) {
+            if (flavor.isMimeTypeEqual("text/plain")) plain.add(flavor);
+        }
+        DataFlavor best = DataFlavor.selectBestTextFlavor(plain.toArray(new DataFlavor[0]));
+        if (best != null) {
+            try {
+                return best.getReaderForText(transferable);
+            } catch (IOException | UnsupportedFlavorException | IllegalArgumentException e) {
+                // Some native flavors cannot be read as text; try the string flavor
+            }
+        }
+        if (transferable.isDataFlavorSupported(DataFlavor.stringFlavor)) {
+            return new StringReader((String) transferable.getTransferData(DataFlavor.stringFlavor));
+        }
+        return null;
+    }
+
+    @Override
+    protected Void doInBackground() throws Exception {
+        try {
+            String chunk;
+            while (!isCancelled() && (chunk = source.next()) != null) {
+                inFlight.acquire();
+                publish(chunk);
+            }
+        } finally {
+            source.close();
+        }
+        return null;
+    }
+
+    @Override
+    protected void process(List<String> chunks) {
+        if (finished) return;
+        Document doc = editor.getDocument();
+        try {
+            for (String chunk : chunks) {
+                doc.insertString(start + inserted, chunk, null);
+                inserted += chunk.length();
+                inFlight.release();
+            }
+        } catch (BadLocationException e) {
+            cancel(true);
+            return;
+        }
+        editor.setCaretPosition(start + inserted);
+        monitor.setNote(String.format("%.1f MB inserted", inserted / 1048576.0));
+        monitor.setProgress(progress());
+        if (monitor.isCanceled()) cancel(true);
+    }
+
+    /**
+     * Stop and roll back right away, before the document is replaced or
+     * edited by something else; a later rollback would remove text from
+     * whatever the editor shows by then. Calls onFinished before returning.
+     */
+    public void abort() {
+        if (finished) return;
+        finished = true;
+        cancel(true);
+        finish(false);
+    }
+
+    @Override
+    protected void done() {
+        if (finished) return;
+        finished = true;
+        monitor.close();
+
+        boolean completed = !isCancelled();
+        if (completed) {
+            try {
+                get();
+            } catch (InterruptedException | ExecutionException e) {
+                completed = false;
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                JOptionPane.showMessageDialog(editor, "Insert failed: " + cause.getMessage());
+            }
+        }
+        finish(completed);
+    }
+
+    private void finish(boolean completed) {
+        monitor.close();
+        editor.setEditable(wasEditable);
+        if (!completed) rollBack();
+        onFinished.accept(completed);
+    }
+
+    private void rollBack() {
+        try {
+            Document doc = editor.getDocument();
+            doc.remove(start, inserted);
+            if (replaced != null) doc.insertString(start, replaced, null);
+            editor.select(start, start + (replaced == null ? 0 : replaced.length()));
+        } catch (BadLocationException e) {
+            // The inserted range is owned by this insert; nothing else edits it
+        }
+    }
+
+    private int progress() {
+        if (estimatedLength > 0) {
+            return (int) Math.min(PROGRESS_SCALE - 1, (long) inserted * PROGRESS_SCALE / estimatedLength);
+        }
+        // Unknown length: keep moving without ever claiming to be done
+        return (int) ((long) inserted * PROGRESS_SCALE / (inserted + 16L * CHUNK_SIZE));
+    }
+
+    /**
+     * Reads text in chunks of CHUNK_SIZE, normalizing line separators to
+     * '\n' as the document model expects.
+     */
+    private static final class ChunkReader implements Closeable {
+        private final Reader reader;
+        private final char[] buffer = new char[CHUNK_SIZE];
+        private boolean pendingReturn;
+        private int lookahead = -2;
+
+        ChunkReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        boolean hasMore() throws IOException {
+            if (lookahead == -2) lookahead = reader.read();
+            return lookahead != -1;
+        }
+
+        String next() throws IOException {
+            int length = 0;
+            if (lookahead >= 0) buffer[length++] = (char) lookahead;
+            boolean eof = lookahead == -1;
+            lookahead = -2;
+            while (!eof && length < buffer.length) {
+                int n = reader.read(buffer, length, buffer.length - length);
+                if (n < 0) eof = true;
+                else length += n;
+            }
+            if (length == 0) return null;
+
+            StringBuilder chunk = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                char c = buffer[i];
+                if (c == '\r') {
+                    chunk.append('\n');
+                    pendingReturn = true;
+                    continue;
+                }
+                if (!(c == '\n' && pendingReturn)) chunk.append(c);
+                pendingReturn = false;
+            }
+            if (chunk.length() == 0) return eof ? null : next();
+            return chunk.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -1,15 +1,16 @@
 package app;
 
-import model.Version;
+import model.SearchHit;
 import model.VersionException;
 import service.*;
 
 import javax.swing.*;
+import javax.swing.text.AbstractDocument;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.datatransfer.*;
+import java.io.File;
 import java.io.IOException;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 
@@ -23,26 +24,48 @@ public class TrackPad extends JFrame {
     private final AutosaveWorker autosaveWorker;
     private final FileStorageService fileStorageService;
     private final FileOperationManager fileOperationManager;
+    private final FolderSearchService folderSearchService;
+    private final BlameService blameService;
+    private final BlameGutter blameGutter;
+    private final UndoHistory undoHistory;
+    private FindInFolderDialog findInFolderDialog;
+    private FindReplaceDialog findReplaceDialog;
+    private StreamingInsert activeInsert;
+    private boolean selectingSavedVersion;
 
     private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     private static final String SAVE_FILE = "versions.ser";
+    private static final long UNDO_BUDGET_BYTES = 64L << 20;
 
     public TrackPad() {
         super("Java TrackPad");
 
-        versionManager = new VersionManager<>();
+        versionManager = new VersionManager<>(TieredTextStore::new);
         manualSaver = new ManualSave(versionManager);
-        autosaveWorker = new AutosaveWorker(this::saveVersion, 5);
+        autosaveWorker = new AutosaveWorker(() -> EdtWatchdog.operation("Autosave", this::saveVersion), 5);
         fileStorageService = new FileStorageService(SAVE_FILE);
         fileOperationManager = new FileOperationManager();
+        folderSearchService = new FolderSearchService();
+        blameService = new BlameService();
+        versionManager.addVersionListener(blameService);
 
-        editor = new JTextArea();
+        editor = new JTextArea() {
+            @Override
+            public void updateUI() {
+                setUI(new EditorTextAreaUI());
+            }
+        };
         versionListModel = new DefaultListModel<>();
         versionList = new JList<>(versionListModel);
         versionList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        blameGutter = new BlameGutter(editor);
+        undoHistory = new UndoHistory((AbstractDocument) editor.getDocument(), UNDO_BUDGET_BYTES);
+        editor.setTransferHandler(new EditorTransferHandler(editor.getTransferHandler(), this::importTransferable));
 
+        JScrollPane editorScroll = new JScrollPane(editor);
+        editorScroll.setRowHeaderView(blameGutter);
         JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT,
-                new JScrollPane(editor), new JScrollPane(versionList));
+                editorScroll, new JScrollPane(versionList));
         splitPane.setResizeWeight(0.8);
         add(splitPane, BorderLayout.CENTER);
 
@@ -52,6 +75,12 @@ public class TrackPad extends JFrame {
 
         loadVersionsFromFile();
 
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                releaseResources();
+            }
+        });
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(1000, 700);
         setLocationRelativeTo(null);
@@ -67,7 +96,7 @@ public class TrackPad extends JFrame {
         newFile.addActionListener(e -> handleNewFile());
         
         JMenuItem openFile = new JMenuItem("Open");
-        openFile.addActionListener(e -> handleOpenFile());
+        openFile.addActionListener(e -> EdtWatchdog.operation("Open File", this::handleOpenFile));
         
         JMenuItem saveFile = new JMenuItem("Save");
         saveFile.addActionListener(e -> handleSaveFile());
@@ -77,16 +106,24 @@ public class TrackPad extends JFrame {
 
         JSeparator separator1 = new JSeparator();
         JMenuItem saveToDisk = new JMenuItem("Save All to Disk");
-        saveToDisk.addActionListener(e -> saveToDisk());
+        saveToDisk.addActionListener(e -> EdtWatchdog.operation("Save All to Disk", this::saveToDisk));
 
         JMenuItem loadFromDisk = new JMenuItem("Load from Disk");
-        loadFromDisk.addActionListener(e -> loadVersionsFromFile());
+        loadFromDisk.addActionListener(e -> EdtWatchdog.operation("Load from Disk", this::loadVersionsFromFile));
 
         JSeparator separator2 = new JSeparator();
         
         JMenuItem exitItem = new JMenuItem("Exit");
         exitItem.addActionListener(e -> handleExit());
 
+        JMenuItem undoItem = new JMenuItem("Undo");
+        undoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+        undoItem.addActionListener(e -> undo());
+
+        JMenuItem redoItem = new JMenuItem("Redo");
+        redoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+        redoItem.addActionListener(e -> redo());
+
         JMenuItem cutItem = new JMenuItem("Cut");
         cutItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_X, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
         cutItem.addActionListener(e -> cutText());
@@ -103,6 +140,23 @@ public class TrackPad extends JFrame {
         selectAllItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_A, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
         selectAllItem.addActionListener(e -> editor.selectAll());
 
+        JMenuItem findReplaceItem = new JMenuItem("Find/Replace...");
+        findReplaceItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+        findReplaceItem.addActionListener(e -> showFindReplace());
+
+        JMenuItem findInFolderItem = new JMenuItem("Find in Folder...");
+        findInFolderItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx() | KeyEvent.SHIFT_DOWN_MASK));
+        findInFolderItem.addActionListener(e -> showFindInFolder());
+
+        JCheckBoxMenuItem wordWrapToggle = new JCheckBoxMenuItem("Word Wrap");
+        wordWrapToggle.addActionListener(e -> {
+            editor.setLineWrap(wordWrapToggle.isSelected());
+            editor.setWrapStyleWord(wordWrapToggle.isSelected());
+        });
+
+        JCheckBoxMenuItem blameToggle = new JCheckBoxMenuItem("Show Blame", true);
+        blameToggle.addActionListener(e -> blameGutter.setVisible(blameToggle.isSelected()));
+
         JCheckBoxMenuItem autoSaveToggle = new JCheckBoxMenuItem("Enable Autosave");
         JMenuItem setInterval = new JMenuItem("Set Autosave Interval");
 
@@ -133,12 +187,21 @@ public class TrackPad extends JFrame {
         fileMenu.add(separator2);
         fileMenu.add(exitItem);
         
+        editMenu.add(undoItem);
+        editMenu.add(redoItem);
+        editMenu.addSeparator();
         editMenu.add(cutItem);
         editMenu.add(copyItem);
         editMenu.add(pasteItem);
         editMenu.addSeparator();
         editMenu.add(selectAllItem);
+        editMenu.addSeparator();
+        editMenu.add(findReplaceItem);
+        editMenu.add(findInFolderItem);
         
+        options.add(wordWrapToggle);
+        options.add(blameToggle);
+        options.addSeparator();
         options.add(autoSaveToggle);
         options.add(setInterval);
 
@@ -151,10 +214,14 @@ public class TrackPad extends JFrame {
     private void setupListeners() {
         versionList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
-                try {
-                    String content = versionManager.getVersionContent(versionList.getSelectedIndex());
-                    editor.setText(content);
-                } catch (VersionException ignored) {}
+                EdtWatchdog.operation("Switch Version", () -> {
+                    try {
+                        int index = versionList.getSelectedIndex();
+                        // The editor already shows a version that was just saved from it
+                        if (!selectingSavedVersion) editor.setText(versionManager.getVersionContent(index));
+                        blameGutter.setOrigins(blameService.blame(index));
+                    } catch (VersionException ignored) {}
+                });
             }
         });
     }
@@ -165,7 +232,7 @@ public class TrackPad extends JFrame {
         editor.getActionMap().put("save", new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                saveVersion();
+                EdtWatchdog.operation("Save Version", TrackPad.this::saveVersion);
             }
         });
         
@@ -183,7 +250,7 @@ public class TrackPad extends JFrame {
         editor.getActionMap().put("open", new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                handleOpenFile();
+                EdtWatchdog.operation("Open File", TrackPad.this::handleOpenFile);
             }
         });
         
@@ -262,15 +329,24 @@ public class TrackPad extends JFrame {
     }
 
     private void saveVersion() {
+        // A half-inserted paste is not a version; one is saved when it completes
+        if (activeInsert != null) return;
         manualSaver.save(editor.getText());
         int index = versionManager.getVersionCount() - 1;
-        versionListModel.addElement("v" + (index + 1) + " - " + LocalDateTime.now().format(TIME_FORMAT));
-        versionList.setSelectedIndex(index);
+        versionListModel.addElement("v" + versionManager.getVersionNumber(index) + " - "
+                + versionManager.getVersionTimestamp(index).format(TIME_FORMAT));
+        selectingSavedVersion = true;
+        try {
+            versionList.setSelectedIndex(index);
+        } finally {
+            selectingSavedVersion = false;
+        }
     }
 
     private void saveToDisk() {
         try {
-            fileStorageService.saveToFile(versionManager.getAllVersions());
+            fileStorageService.saveToFile(versionManager);
+            fileStorageService.saveAnnotations(blameService.snapshot());
             JOptionPane.showMessageDialog(this, "Versions saved to disk.");
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, "Error saving to disk: " + e.getMessage());
@@ -278,40 +354,113 @@ public class TrackPad extends JFrame {
     }
 
     private void loadVersionsFromFile() {
+        abortActiveInsert();
+        VersionArchive.LoadResult result;
         try {
-            List<Version<String>> loaded = fileStorageService.loadFromFile();
-            if (loaded != null) {
-                versionManager.setAllVersions(loaded);
-                versionListModel.clear();
-                for (Version<String> v : loaded) {
-                    versionListModel.addElement("v" + v.getNumber() + " - " + v.getTimestamp().format(TIME_FORMAT));
-                }
-            }
+            result = fileStorageService.load(versionManager);
         } catch (IOException | ClassNotFoundException e) {
+            JOptionPane.showMessageDialog(this, "Saved versions could not be read: " + e.getMessage(),
+                    "Load from Disk", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (result == null) {
             System.out.println("No saved versions found.");
+            return;
+        }
+
+        loadAnnotations();
+        versionListModel.clear();
+        for (int i = 0; i < versionManager.getVersionCount(); i++) {
+            versionListModel.addElement("v" + versionManager.getVersionNumber(i) + " - "
+                    + versionManager.getVersionTimestamp(i).format(TIME_FORMAT));
+        }
+        if (!result.isIntact()) reportDamagedArchive(result);
+    }
+
+    private void reportDamagedArchive(VersionArchive.LoadResult result) {
+        String message = "The saved versions file is damaged.\n"
+                + "Recovered " + result.getVersionCount() + " version(s); skipped "
+                + result.getDamagedRegions() + " damaged region(s) (" + result.getDamagedBytes() + " bytes)"
+                + (result.getUnreadableRecords() > 0 ? " and " + result.getUnreadableRecords() + " unreadable version(s)" : "")
+                + ".\n\nRewrite the file with the recovered versions?\n"
+                + "The damaged file is kept as " + SAVE_FILE + ".corrupt.";
+        int choice = JOptionPane.showConfirmDialog(this, message, "Load from Disk",
+                JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+        if (choice != JOptionPane.YES_OPTION) return;
+        try {
+            fileStorageService.repair(versionManager);
+            fileStorageService.saveAnnotations(blameService.snapshot());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error repairing saved versions: " + e.getMessage());
         }
     }
 
+    private void loadAnnotations() {
+        boolean restored = false;
+        try {
+            restored = blameService.restore(fileStorageService.loadAnnotations());
+        } catch (IOException | ClassNotFoundException e) {
+            // Annotations are rebuilt from the versions when missing or unreadable
+        }
+        if (!restored) blameService.ensureBuilt();
+    }
+
     private void handleNewFile() {
+        abortActiveInsert();
         String result = fileOperationManager.executeOperation("New", this, editor.getText());
         if (result != null) {
             editor.setText(result);
+            undoHistory.discardAll();
             versionListModel.clear();
             versionManager.setAllVersions(new java.util.ArrayList<>());
+            blameGutter.setOrigins(null);
             setTitle("Java TrackPad - New File");
         }
     }
     
     private void handleOpenFile() {
+        abortActiveInsert();
         String result = fileOperationManager.executeOperation("Open", this, editor.getText());
         if (result != null) {
-            editor.setText(result);
-            versionListModel.clear();
-            versionManager.setAllVersions(new java.util.ArrayList<>());
-            saveVersion();
-            setTitle("Java TrackPad - " + fileOperationManager.getCurrentFilePath());
+            showOpenedFile(result);
         }
     }
+
+    private void showOpenedFile(String content) {
+        editor.setText(content);
+        undoHistory.discardAll();
+        versionListModel.clear();
+        versionManager.setAllVersions(new java.util.ArrayList<>());
+        saveVersion();
+        setTitle("Java TrackPad - " + fileOperationManager.getCurrentFilePath());
+    }
+
+    private void showFindReplace() {
+        if (findReplaceDialog == null) {
+            findReplaceDialog = new FindReplaceDialog(this, editor, undoHistory);
+        }
+        findReplaceDialog.setVisible(true);
+    }
+
+    private void showFindInFolder() {
+        if (findInFolderDialog == null) {
+            findInFolderDialog = new FindInFolderDialog(this, folderSearchService, this::openSearchHit);
+        }
+        findInFolderDialog.setVisible(true);
+    }
+
+    private void openSearchHit(SearchHit hit) {
+        abortActiveInsert();
+        String result = fileOperationManager.openFile(this, hit.getFile(), editor.getText());
+        if (result == null) return;
+        showOpenedFile(result);
+        try {
+            int line = Math.min(hit.getLineNumber(), editor.getLineCount()) - 1;
+            editor.setCaretPosition(editor.getLineStartOffset(line));
+        } catch (javax.swing.text.BadLocationException ignored) {}
+        toFront();
+        editor.requestFocusInWindow();
+    }
     
     private void handleSaveFile() {
         String result = fileOperationManager.executeOperation("Save", this, editor.getText());
@@ -347,10 +496,17 @@ public class TrackPad extends JFrame {
             }
         }
         
-        fileOperationManager.shutdown();
+        releaseResources();
         System.exit(0);
     }
 
+    private void releaseResources() {
+        fileOperationManager.shutdown();
+        folderSearchService.shutdown();
+        // Stops the store's heap-pressure listener and deletes its spill file
+        versionManager.close();
+    }
+
     private void cutText() {
         String selectedText = editor.getSelectedText();
         if (selectedText != null && !selectedText.isEmpty()) {
@@ -366,11 +522,62 @@ public class TrackPad extends JFrame {
         }
     }
 
+    private void undo() {
+        if (activeInsert != null) return;
+        int caret = undoHistory.undo();
+        if (caret >= 0) editor.setCaretPosition(caret);
+    }
+
+    private void redo() {
+        if (activeInsert != null) return;
+        int caret = undoHistory.redo();
+        if (caret >= 0) editor.setCaretPosition(caret);
+    }
+
     private void pasteText() {
-        String clipboardText = getFromClipboard();
-        if (clipboardText != null) {
-            editor.replaceSelection(clipboardText);
+        importTransferable(Toolkit.getDefaultToolkit().getSystemClipboard().getContents(null));
+    }
+
+    /**
+     * Insert pasted text or dropped files at the caret. Large inputs stream
+     * in the background and are saved as one version when complete.
+     */
+    private boolean importTransferable(Transferable transferable) {
+        if (transferable == null || activeInsert != null) return false;
+        // Every chunk of a streamed insert belongs to one undo step
+        undoHistory.beginCompound();
+        try {
+            if (transferable.isDataFlavorSupported(DataFlavor.javaFileListFlavor)) {
+                @SuppressWarnings("unchecked")
+                List<File> files = (List<File>) transferable.getTransferData(DataFlavor.javaFileListFlavor);
+                activeInsert = StreamingInsert.insertFiles(editor, files, this::streamingInsertFinished);
+            } else {
+                activeInsert = StreamingInsert.insertText(editor, transferable, this::streamingInsertFinished);
+            }
+        } catch (UnsupportedFlavorException | IOException e) {
+            undoHistory.endCompound();
+            JOptionPane.showMessageDialog(this, "Could not insert: " + e.getMessage());
+            return false;
         }
+        if (activeInsert != null) versionList.setEnabled(false);
+        else undoHistory.endCompound();
+        return true;
+    }
+
+    /**
+     * Roll back a running insert before the document is replaced, so it
+     * cannot go on inserting into (or roll back from) the new text.
+     */
+    private void abortActiveInsert() {
+        if (activeInsert != null) activeInsert.abort();
+    }
+
+    private void streamingInsertFinished(boolean completed) {
+        activeInsert = null;
+        if (completed) undoHistory.endCompound();
+        else undoHistory.cancelCompound();
+        versionList.setEnabled(true);
+        if (completed) saveVersion();
     }
 
     private void copyToClipboard(String text) {
@@ -379,15 +586,6 @@ public class TrackPad extends JFrame {
         clipboard.setContents(selection, null);
     }
 
-    private String getFromClipboard() {
-        Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
-        try {
-            return (String) clipboard.getData(DataFlavor.stringFlavor);
-        } catch (UnsupportedFlavorException | IOException e) {
-            return null;
-        }
-    }
-
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> new TrackPad().setVisible(true));
     }
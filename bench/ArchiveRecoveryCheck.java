@@ -0,0 +1,82 @@
+package bench;
+
+import model.Version;
+import service.VersionArchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Recovery check for the version archive: writes a small archive, damages
+ * one record and verifies that every other version is still read back.
+ *
+ * Usage: java bench.ArchiveRecoveryCheck
+ * The exit status is 1 when a case loses an intact version.
+ */
+public class ArchiveRecoveryCheck {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER = 12;
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        passed &= check("corrupted payload", (file, record) -> flipByte(file, record + RECORD_HEADER + 20));
+        passed &= check("corrupted length", (file, record) -> addToInt(file, record + 4, 60));
+        passed &= check("corrupted sync marker", (file, record) -> flipByte(file, record));
+        System.exit(passed ? 0 : 1);
+    }
+
+    private interface Damage {
+        void apply(RandomAccessFile file, long recordPosition) throws IOException;
+    }
+
+    /**
+     * Damage the second of four records; versions 1, 3 and 4 must survive.
+     */
+    private static boolean check(String name, Damage damage) throws Exception {
+        File file = File.createTempFile("archive-check", ".ser");
+        try {
+            List<Version<String>> versions = new ArrayList<>();
+            for (int v = 1; v <= 4; v++) {
+                versions.add(new Version<>(v, LocalDateTime.now(), ("version " + v + " line\n").repeat(10 * v)));
+            }
+            VersionArchive.write(file, versions);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(HEADER_SIZE + 4);
+                long second = HEADER_SIZE + RECORD_HEADER + raf.readInt();
+                damage.apply(raf, second);
+            }
+
+            List<Version<String>> recovered = new ArrayList<>();
+            VersionArchive.LoadResult result = VersionArchive.<String>read(file, recovered::add);
+            List<Integer> numbers = recovered.stream().map(Version::getNumber).collect(Collectors.toList());
+            boolean contentIntact = recovered.stream()
+                    .allMatch(v -> v.getContent().equals(versions.get(v.getNumber() - 1).getContent()));
+            boolean ok = numbers.equals(List.of(1, 3, 4)) && contentIntact && !result.isIntact();
+            System.out.printf("%-24s %s (recovered %s, %d damaged region(s))%n",
+                    name, ok ? "ok" : "FAIL", numbers, result.getDamagedRegions());
+            return ok;
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void flipByte(RandomAccessFile file, long position) throws IOException {
+        file.seek(position);
+        int b = file.read();
+        file.seek(position);
+        file.write(b ^ 0xFF);
+    }
+
+    private static void addToInt(RandomAccessFile file, long position, int delta) throws IOException {
+        file.seek(position);
+        int value = file.readInt();
+        file.seek(position);
+        file.writeInt(value + delta);
+    }
+}
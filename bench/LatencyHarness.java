@@ -0,0 +1,270 @@
+package bench;
+
+import app.BlameGutter;
+import app.EditorTextAreaUI;
+import app.StreamingInsert;
+import model.VersionException;
+import service.BlameService;
+import service.TieredTextStore;
+import service.EdtWatchdog;
+import service.ManualSave;
+import service.SaveStrategy;
+import service.UndoHistory;
+import service.VersionManager;
+
+import javax.swing.*;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scripted interactive-latency harness for the editor.
+ *
+ * Builds the same editor, undo history, version store, blame service and
+ * gutter as TrackPad (without a window, so it also runs with
+ * -Djava.awt.headless=true) and drives them from a timer at realistic rates:
+ * typing, large pastes streamed in as TrackPad streams them, autosaves and
+ * version switches. Every input is timestamped when it is
+ * issued; the latency recorded is the time until the viewport has been
+ * painted after it, so time spent queued behind a slow EDT task counts.
+ *
+ * Usage: java bench.LatencyHarness [--seconds 20] [--doc-mb 2] [--stall-ms 100] [--max-p99 ms]
+ * With --max-p99 the exit status is 1 when the overall p99 exceeds the limit.
+ */
+public class LatencyHarness {
+
+    private static final int VIEW_WIDTH = 1000;
+    private static final int VIEW_HEIGHT = 700;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final long UNDO_BUDGET_BYTES = 64L << 20;
+
+    private final JTextArea editor;
+    private final JScrollPane scrollPane;
+    private final VersionManager<String> versionManager;
+    private final SaveStrategy saver;
+    private final BlameService blameService;
+    private final BlameGutter blameGutter;
+    private final UndoHistory undoHistory;
+    private StreamingInsert activeInsert;
+    private final DefaultListModel<String> versionListModel = new DefaultListModel<>();
+    private final BufferedImage screen = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+    private final Random random = new Random(7);
+    private final String pasteBlock;
+
+    private final Map<String, List<Long>> latencies = new LinkedHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private LatencyHarness(int documentBytes) {
+        editor = new JTextArea() {
+            @Override
+            public void updateUI() {
+                setUI(new EditorTextAreaUI());
+            }
+        };
+        blameGutter = new BlameGutter(editor);
+        undoHistory = new UndoHistory((AbstractDocument) editor.getDocument(), UNDO_BUDGET_BYTES);
+        scrollPane = new JScrollPane(editor);
+        scrollPane.setRowHeaderView(blameGutter);
+        scrollPane.setSize(VIEW_WIDTH, VIEW_HEIGHT);
+        versionManager = new VersionManager<>(TieredTextStore::new);
+        blameService = new BlameService();
+        versionManager.addVersionListener(blameService);
+        saver = new ManualSave(versionManager);
+
+        editor.setText(generateText(documentBytes));
+        pasteBlock = generateText(256 * 1024);
+        scrollPane.validate();
+        saveVersion();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = intArg(args, "--seconds", 20);
+        int documentMb = intArg(args, "--doc-mb", 2);
+        int stallMillis = intArg(args, "--stall-ms", 100);
+        int maxP99 = intArg(args, "--max-p99", -1);
+
+        List<EdtWatchdog.StallReport> stalls = Collections.synchronizedList(new ArrayList<>());
+        EdtWatchdog watchdog = EdtWatchdog.install(stallMillis);
+        watchdog.addStallListener(stalls::add);
+
+        LatencyHarness[] holder = new LatencyHarness[1];
+        SwingUtilities.invokeAndWait(() -> holder[0] = new LatencyHarness(documentMb * 1024 * 1024));
+        LatencyHarness harness = holder[0];
+
+        ScheduledExecutorService script = Executors.newSingleThreadScheduledExecutor();
+        harness.schedule(script, "type", 50, harness::type);
+        harness.schedule(script, "paste", 3000, harness::paste);
+        harness.schedule(script, "autosave", 5000, harness::saveVersion);
+        harness.schedule(script, "switch version", 2000, harness::switchVersion);
+
+        Thread.sleep(seconds * 1000L);
+        script.shutdownNow();
+        while (harness.pending.get() > 0) Thread.sleep(50);
+        watchdog.uninstall();
+
+        long overallP99 = harness.report(stalls);
+        harness.versionManager.close();
+        if (maxP99 >= 0 && overallP99 > maxP99) {
+            System.out.printf("FAIL: overall p99 %d ms exceeds limit %d ms%n", overallP99, maxP99);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private void schedule(ScheduledExecutorService script, String name, long periodMillis, Runnable action) {
+        latencies.put(name, Collections.synchronizedList(new ArrayList<>()));
+        script.scheduleAtFixedRate(() -> {
+            long issued = System.nanoTime();
+            pending.incrementAndGet();
+            EventQueue.invokeLater(() -> {
+                EdtWatchdog.operation(name, action);
+                // Paint in a later event, as the RepaintManager would
+                EventQueue.invokeLater(() -> {
+                    paintViewport();
+                    latencies.get(name).add(System.nanoTime() - issued);
+                    pending.decrementAndGet();
+                });
+            });
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // ---- scripted actions, mirroring TrackPad ----
+
+    private void type() {
+        // Ignored, like a key press, while a paste streams into the read-only editor
+        char c = random.nextInt(12) == 0 ? '\n' : (char) ('a' + random.nextInt(26));
+        editor.replaceSelection(String.valueOf(c));
+        revealCaret();
+    }
+
+    private void paste() {
+        if (activeInsert != null) return;
+        undoHistory.beginCompound();
+        try {
+            activeInsert = StreamingInsert.insertText(editor, new StringSelection(pasteBlock), this::pasteFinished);
+        } catch (UnsupportedFlavorException | IOException e) {
+            undoHistory.endCompound();
+            throw new IllegalStateException(e);
+        }
+        if (activeInsert == null) undoHistory.endCompound();
+        revealCaret();
+    }
+
+    private void pasteFinished(boolean completed) {
+        activeInsert = null;
+        if (completed) undoHistory.endCompound();
+        else undoHistory.cancelCompound();
+        if (completed) saveVersion();
+    }
+
+    private void saveVersion() {
+        if (activeInsert != null) return;
+        saver.save(editor.getText());
+        int index = versionManager.getVersionCount() - 1;
+        versionListModel.addElement("v" + versionManager.getVersionNumber(index) + " - "
+                + versionManager.getVersionTimestamp(index).format(TIME_FORMAT));
+        // Selecting the version just saved only updates the blame
+        try {
+            blameGutter.setOrigins(blameService.blame(index));
+        } catch (VersionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void switchVersion() {
+        // The version list is disabled while a paste streams in
+        if (activeInsert != null) return;
+        int index = random.nextInt(versionManager.getVersionCount());
+        try {
+            editor.setText(versionManager.getVersionContent(index));
+            blameGutter.setOrigins(blameService.blame(index));
+            revealCaret();
+        } catch (VersionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void revealCaret() {
+        try {
+            Rectangle2D r = editor.modelToView2D(editor.getCaretPosition());
+            if (r != null) editor.scrollRectToVisible(r.getBounds());
+        } catch (BadLocationException ignored) {
+        }
+        scrollPane.validate();
+    }
+
+    private void paintViewport() {
+        Graphics2D g = screen.createGraphics();
+        try {
+            scrollPane.paint(g);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // ---- reporting ----
+
+    private long report(List<EdtWatchdog.StallReport> stalls) {
+        System.out.printf("%-16s %7s %9s %9s %9s %9s%n", "action", "count", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        List<Long> all = new ArrayList<>();
+        for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+            List<Long> samples = new ArrayList<>(entry.getValue());
+            all.addAll(samples);
+            printRow(entry.getKey(), samples);
+        }
+        long overallP99 = printRow("overall", all);
+        System.out.printf("EDT stalls over threshold: %d%n", stalls.size());
+        synchronized (stalls) {
+            stalls.stream().limit(3).forEach(s -> System.out.println("  " + s.getStallMillis() + " ms in "
+                    + (s.getOperation() != null ? s.getOperation() : "unlabelled")));
+        }
+        return overallP99;
+    }
+
+    private static long printRow(String name, List<Long> samples) {
+        Collections.sort(samples);
+        System.out.printf("%-16s %7d %9.1f %9.1f %9.1f %9.1f%n", name, samples.size(),
+                percentile(samples, 50), percentile(samples, 90), percentile(samples, 99), percentile(samples, 100));
+        return (long) Math.ceil(percentile(samples, 99));
+    }
+
+    private static double percentile(List<Long> sorted, int p) {
+        if (sorted.isEmpty()) return 0;
+        int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index))) / 1e6;
+    }
+
+    private static String generateText(int bytes) {
+        Random r = new Random(bytes);
+        StringBuilder sb = new StringBuilder(bytes + 128);
+        int line = 0;
+        while (sb.length() < bytes) {
+            sb.append("2024-01-01 12:00:").append(line % 60).append(" INFO request ").append(line++)
+              .append(" took ").append(r.nextInt(500)).append(" ms\n");
+        }
+        return sb.toString();
+    }
+
+    private static int intArg(String[] args, String name, int defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) return Integer.parseInt(args[i + 1]);
+        }
+        return defaultValue;
+    }
+}
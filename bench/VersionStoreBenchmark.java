@@ -0,0 +1,115 @@
+package bench;
+
+import model.Version;
+import service.CompactTextStore;
+import service.HeapVersionStore;
+import service.TieredTextStore;
+import service.VersionStore;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares heap retained, GC time and read latency of the version stores on
+ * a synthetic editing history.
+ *
+ * Usage: java bench.VersionStoreBenchmark [versions] [lines]
+ */
+public class VersionStoreBenchmark {
+
+    public static void main(String[] args) {
+        int versions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        System.out.printf("%d versions of a %d-line document%n", versions, lines);
+        System.out.printf("%-18s %12s %12s %10s %14s%n", "store", "retained MB", "build ms", "GC ms", "read us/ver");
+        run("HeapVersionStore", HeapVersionStore::new, versions, lines);
+        run("CompactTextStore", CompactTextStore::new, versions, lines);
+        run("TieredTextStore", TieredTextStore::new, versions, lines);
+    }
+
+    private static void run(String name, Supplier<VersionStore<String>> factory, int versions, int lines) {
+        settle();
+        long baseGc = gcMillis();
+        long start = System.nanoTime();
+
+        VersionStore<String> store = factory.get();
+        Random random = new Random(42);
+        List<String> document = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) document.add(randomLine(random, i));
+        for (int v = 1; v <= versions; v++) {
+            edit(document, random, v);
+            store.add(new Version<>(v, LocalDateTime.now(), String.join("\n", document)));
+        }
+        document = null;
+
+        long buildMillis = (System.nanoTime() - start) / 1_000_000;
+        long gc = gcMillis() - baseGc;
+        settle();
+        long heldHeap = usedHeap();
+
+        long readStart = System.nanoTime();
+        int reads = Math.min(versions, 500);
+        long checksum = 0;
+        for (int i = 0; i < reads; i++) checksum += store.getContent(random.nextInt(versions)).length();
+        long readMicros = (System.nanoTime() - readStart) / 1000 / reads;
+
+        if (store.size() != versions) throw new IllegalStateException("lost versions");
+
+        // Retained is what the heap drops by once the store is released, so
+        // garbage left over from an earlier run does not skew it
+        if (store instanceof TieredTextStore) ((TieredTextStore) store).close();
+        store = null;
+        settle();
+        long retained = heldHeap - usedHeap();
+        System.out.printf("%-18s %12.1f %12d %10d %14d%s%n", name, retained / 1048576.0, buildMillis, gc, readMicros,
+                checksum == 0 ? " (empty)" : "");
+    }
+
+    private static void edit(List<String> document, Random random, int version) {
+        int edits = 1 + random.nextInt(3);
+        for (int e = 0; e < edits; e++) {
+            int at = random.nextInt(document.size());
+            switch (random.nextInt(3)) {
+                case 0: document.add(at, randomLine(random, version)); break;
+                case 1: if (document.size() > 1) document.remove(at); break;
+                default: document.set(at, randomLine(random, version));
+            }
+        }
+    }
+
+    private static String randomLine(Random random, int seed) {
+        StringBuilder line = new StringBuilder("    value_" + seed + " = compute(");
+        int words = 2 + random.nextInt(6);
+        for (int w = 0; w < words; w++) line.append("arg").append(random.nextInt(1000)).append(", ");
+        return line.append(");").toString();
+    }
+
+    private static void settle() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,28 @@
+package model;
+
+import java.io.File;
+
+/**
+ * A single match reported by a folder search: the file, the 1-based line
+ * number and the text of that line.
+ */
+public class SearchHit {
+    private final File file;
+    private final int lineNumber;
+    private final String lineText;
+
+    public SearchHit(File file, int lineNumber, String lineText) {
+        this.file = file;
+        this.lineNumber = lineNumber;
+        this.lineText = lineText;
+    }
+
+    public File getFile() { return file; }
+    public int getLineNumber() { return lineNumber; }
+    public String getLineText() { return lineText; }
+
+    @Override
+    public String toString() {
+        return file.getPath() + ":" + lineNumber + ": " + lineText;
+    }
+}
@@ -0,0 +1,393 @@
+package service;
+
+import model.Version;
+import model.VersionException;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks, for every line, the number of the version that introduced it.
+ * Demonstrates: Observer, Incremental computation, Primitive arrays
+ *
+ * Each added version is compared only with its predecessor: the common
+ * prefix and suffix are skipped and the remaining middle is matched with a
+ * patience diff, so the cost follows the size of the edit rather than the
+ * square of it, and moved blocks keep their origins. Every version
+ * keeps just its hunks; a full annotation array is kept for the newest
+ * version and as a checkpoint every {@link #CHECKPOINT_INTERVAL} versions,
+ * so blame for any older version replays at most that many hunk lists.
+ */
+public class BlameService implements VersionListener<String> {
+
+    private static final int CHECKPOINT_INTERVAL = 64;
+    private static final int MAX_FALLBACK_EDITS = 1000;
+    private static final String[] NO_LINES = new String[0];
+
+    private BlameIndex index = new BlameIndex();
+    private String[] currentLines = NO_LINES;
+    // History to annotate on first use after a reset, up to pendingCount versions
+    private VersionManager<String> pendingRebuild;
+    private int pendingCount;
+
+    @Override
+    public void versionAdded(Version<String> version) {
+        ensureBuilt();
+        append(version);
+    }
+
+    @Override
+    public void versionsReset(VersionManager<String> versions) {
+        index = new BlameIndex();
+        currentLines = NO_LINES;
+        // Rebuilt lazily, so a persisted index can be restored instead
+        pendingCount = versions.getVersionCount();
+        pendingRebuild = pendingCount == 0 ? null : versions;
+    }
+
+    /**
+     * Get the introducing version number of every line of a version.
+     * @param versionIndex index as used by {@link VersionManager#getVersionContent(int)}
+     * @return one version number per line of that version's content
+     */
+    public int[] blame(int versionIndex) throws VersionException {
+        ensureBuilt();
+        if (versionIndex < 0 || versionIndex >= index.versionCount) {
+            throw new VersionException("Invalid version index: " + versionIndex);
+        }
+        if (versionIndex == index.versionCount - 1) {
+            return index.currentOrigins.clone();
+        }
+        int checkpoint = versionIndex - versionIndex % CHECKPOINT_INTERVAL;
+        int[] stored = index.checkpoints.get(checkpoint);
+        int[] origins = stored;
+        for (int v = checkpoint + 1; v <= versionIndex; v++) {
+            origins = index.applyHunks(origins, v, origins != stored);
+        }
+        return origins == stored ? origins.clone() : origins;
+    }
+
+    /**
+     * State to persist alongside the version history.
+     */
+    public Serializable snapshot() {
+        ensureBuilt();
+        return index;
+    }
+
+    /**
+     * Adopt a persisted index if it matches the versions last passed to
+     * {@link #versionsReset(VersionManager)}; otherwise they are re-annotated on demand.
+     * @return whether the snapshot was used
+     */
+    public boolean restore(Object snapshot) {
+        if (!(snapshot instanceof BlameIndex) || pendingRebuild == null) return false;
+        BlameIndex restored = (BlameIndex) snapshot;
+        if (restored.versionCount != pendingCount) return false;
+        for (int i = 0; i < restored.versionCount; i++) {
+            if (restored.versionNumbers[i] != pendingRebuild.getVersionNumber(i)) return false;
+        }
+        index = restored;
+        currentLines = splitLines(pendingRebuild.readVersion(pendingCount - 1).getContent());
+        pendingRebuild = null;
+        return true;
+    }
+
+    /**
+     * Annotate the history of the last reset now, rather than on first use.
+     * Versions are read one at a time, so a long history is never on the
+     * heap all at once.
+     */
+    public void ensureBuilt() {
+        if (pendingRebuild == null) return;
+        VersionManager<String> versions = pendingRebuild;
+        pendingRebuild = null;
+        for (int i = 0; i < pendingCount; i++) append(versions.readVersion(i));
+    }
+
+    private void append(Version<String> version) {
+        String[] lines = splitLines(version.getContent());
+        int hunkStart = index.hunkCount;
+        diff(currentLines, lines);
+        index.addVersion(version.getNumber(), hunkStart);
+        index.currentOrigins = index.applyHunks(index.currentOrigins, index.versionCount - 1, true);
+        if ((index.versionCount - 1) % CHECKPOINT_INTERVAL == 0) {
+            index.checkpoints.put(index.versionCount - 1, index.currentOrigins.clone());
+        }
+        currentLines = lines;
+    }
+
+    /**
+     * Record the hunks turning oldLines into newLines.
+     */
+    private void diff(String[] oldLines, String[] newLines) {
+        int oldEnd = oldLines.length;
+        int newEnd = newLines.length;
+        int prefix = 0;
+        while (prefix < oldEnd && prefix < newEnd && oldLines[prefix].equals(newLines[prefix])) prefix++;
+        while (oldEnd > prefix && newEnd > prefix && oldLines[oldEnd - 1].equals(newLines[newEnd - 1])) {
+            oldEnd--;
+            newEnd--;
+        }
+        int a = oldEnd - prefix;
+        int b = newEnd - prefix;
+        if (a == 0 && b == 0) return;
+        if (a == 0 || b == 0) {
+            index.addHunk(prefix, a, b);
+            return;
+        }
+
+        // Unmatched lines between matched pairs become hunks
+        long[] matches = new LineMatcher(oldLines, newLines, prefix, oldEnd, newEnd).match();
+        int i = prefix, j = prefix;
+        for (long match : matches) {
+            int oldLine = (int) (match >>> 32);
+            int newLine = (int) match;
+            if (oldLine > i || newLine > j) index.addHunk(i, oldLine - i, newLine - j);
+            i = oldLine + 1;
+            j = newLine + 1;
+        }
+        if (oldEnd > i || newEnd > j) index.addHunk(i, oldEnd - i, newEnd - j);
+    }
+
+    private static String[] splitLines(String content) {
+        return content == null ? NO_LINES : content.split("\n", -1);
+    }
+
+    /**
+     * Patience diff over interned line ids. Lines that occur exactly once on
+     * each side of a range anchor it, using the longest run of such pairs in
+     * the same order on both sides, and the gaps between anchors are matched
+     * the same way. A gap without unique lines falls back to Myers' greedy
+     * O(ND) diff for up to MAX_FALLBACK_EDITS edits, and beyond that is left
+     * unmatched, i.e. rewritten.
+     */
+    private static final class LineMatcher {
+        private final int base;
+        private final int[] x;
+        private final int[] y;
+        private final int[] countX;
+        private final int[] countY;
+        private final int[] lineY;
+        private long[] pairs = new long[64];
+        private int pairCount;
+
+        LineMatcher(String[] oldLines, String[] newLines, int from, int oldEnd, int newEnd) {
+            base = from;
+            Map<String, Integer> ids = new HashMap<>();
+            x = new int[oldEnd - from];
+            y = new int[newEnd - from];
+            for (int i = 0; i < x.length; i++) x[i] = ids.computeIfAbsent(oldLines[from + i], k -> ids.size());
+            for (int j = 0; j < y.length; j++) y[j] = ids.computeIfAbsent(newLines[from + j], k -> ids.size());
+            countX = new int[ids.size()];
+            countY = new int[ids.size()];
+            lineY = new int[ids.size()];
+        }
+
+        /**
+         * @return matched (old line, new line) pairs, as old &lt;&lt; 32 | new, in order
+         */
+        long[] match() {
+            Deque<int[]> ranges = new ArrayDeque<>();
+            ranges.push(new int[] {0, x.length, 0, y.length});
+            while (!ranges.isEmpty()) {
+                int[] r = ranges.pop();
+                int xs = r[0], xe = r[1], ys = r[2], ye = r[3];
+                while (xs < xe && ys < ye && x[xs] == y[ys]) addPair(xs++, ys++);
+                while (xe > xs && ye > ys && x[xe - 1] == y[ye - 1]) addPair(--xe, --ye);
+                if (xs == xe || ys == ye) continue;
+
+                int[] anchors = anchors(xs, xe, ys, ye);
+                if (anchors.length == 0) {
+                    myers(xs, xe, ys, ye);
+                    continue;
+                }
+                int px = xs, py = ys;
+                for (int k = 0; k < anchors.length; k += 2) {
+                    addPair(anchors[k], anchors[k + 1]);
+                    ranges.push(new int[] {px, anchors[k], py, anchors[k + 1]});
+                    px = anchors[k] + 1;
+                    py = anchors[k + 1] + 1;
+                }
+                ranges.push(new int[] {px, xe, py, ye});
+            }
+            long[] result = Arrays.copyOf(pairs, pairCount);
+            Arrays.sort(result);
+            return result;
+        }
+
+        /**
+         * Lines unique on both sides of the range, longest increasing run.
+         * @return flattened (old, new) pairs
+         */
+        private int[] anchors(int xs, int xe, int ys, int ye) {
+            for (int i = xs; i < xe; i++) countX[x[i]]++;
+            for (int j = ys; j < ye; j++) {
+                countY[y[j]]++;
+                lineY[y[j]] = j;
+            }
+            int[] candX = new int[Math.min(xe - xs, ye - ys)];
+            int[] candY = new int[candX.length];
+            int n = 0;
+            for (int i = xs; i < xe && n < candX.length; i++) {
+                int id = x[i];
+                if (countX[id] == 1 && countY[id] == 1) {
+                    candX[n] = i;
+                    candY[n++] = lineY[id];
+                }
+            }
+            for (int i = xs; i < xe; i++) countX[x[i]] = 0;
+            for (int j = ys; j < ye; j++) countY[y[j]] = 0;
+
+            // Longest increasing subsequence of candY by patience sorting
+            int[] tails = new int[n];
+            int[] previous = new int[n];
+            int piles = 0;
+            for (int c = 0; c < n; c++) {
+                int lo = 0, hi = piles;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (candY[tails[mid]] < candY[c]) lo = mid + 1;
+                    else hi = mid;
+                }
+                previous[c] = lo > 0 ? tails[lo - 1] : -1;
+                tails[lo] = c;
+                if (lo == piles) piles++;
+            }
+            int[] anchors = new int[2 * piles];
+            for (int c = piles > 0 ? tails[piles - 1] : -1, k = piles - 1; c >= 0; c = previous[c], k--) {
+                anchors[2 * k] = candX[c];
+                anchors[2 * k + 1] = candY[c];
+            }
+            return anchors;
+        }
+
+        private void myers(int xs, int xe, int ys, int ye) {
+            int n = xe - xs, m = ye - ys;
+            int max = Math.min(n + m, MAX_FALLBACK_EDITS);
+            int offset = max + 1;
+            int[] v = new int[2 * max + 3];
+            List<int[]> trace = new ArrayList<>();
+            for (int d = 0; d <= max; d++) {
+                // Furthest x on each diagonal k in [-d, d] before this step, for the backtrack
+                trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+                for (int k = -d; k <= d; k += 2) {
+                    int px = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                            ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                    int py = px - k;
+                    while (px < n && py < m && x[xs + px] == y[ys + py]) {
+                        px++;
+                        py++;
+                    }
+                    v[offset + k] = px;
+                    if (px >= n && py >= m) {
+                        backtrack(trace, d, xs, ys, n, m);
+                        return;
+                    }
+                }
+            }
+            // Too different to be worth matching: the whole range is rewritten
+        }
+
+        private void backtrack(List<int[]> trace, int edits, int xs, int ys, int px, int py) {
+            for (int d = edits; d > 0; d--) {
+                int[] before = trace.get(d);
+                int k = px - py;
+                int prevK = k == -d || (k != d && before[k - 1 + d] < before[k + 1 + d]) ? k + 1 : k - 1;
+                int prevX = before[prevK + d];
+                int prevY = prevX - prevK;
+                while (px > prevX && py > prevY) addPair(xs + --px, ys + --py);
+                px = prevX;
+                py = prevY;
+            }
+            while (px > 0 && py > 0) addPair(xs + --px, ys + --py);
+        }
+
+        private void addPair(int i, int j) {
+            if (pairCount == pairs.length) pairs = Arrays.copyOf(pairs, pairCount * 2);
+            pairs[pairCount++] = (long) (base + i) << 32 | (base + j);
+        }
+    }
+
+    /**
+     * Persistent annotation state: per-version hunks in flat int arrays,
+     * the newest annotations and periodic checkpoints.
+     */
+    private static class BlameIndex implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int versionCount;
+        private int[] versionNumbers = new int[16];
+        // First hunk of each version; hunks of version v are [hunkOffsets[v], hunkOffsets[v + 1])
+        private int[] hunkOffsets = new int[17];
+        // Triples of (start line in the previous version, lines removed, lines inserted)
+        private int[] hunks = new int[48];
+        private int hunkCount;
+        private int[] currentOrigins = new int[0];
+        private final Map<Integer, int[]> checkpoints = new HashMap<>();
+
+        void addHunk(int start, int removed, int inserted) {
+            if ((hunkCount + 1) * 3 > hunks.length) hunks = Arrays.copyOf(hunks, hunks.length * 2);
+            hunks[hunkCount * 3] = start;
+            hunks[hunkCount * 3 + 1] = removed;
+            hunks[hunkCount * 3 + 2] = inserted;
+            hunkCount++;
+        }
+
+        void addVersion(int number, int firstHunk) {
+            if (versionCount == versionNumbers.length) {
+                versionNumbers = Arrays.copyOf(versionNumbers, versionNumbers.length * 2);
+                hunkOffsets = Arrays.copyOf(hunkOffsets, versionNumbers.length + 1);
+            }
+            versionNumbers[versionCount] = number;
+            hunkOffsets[versionCount] = firstHunk;
+            hunkOffsets[versionCount + 1] = hunkCount;
+            versionCount++;
+        }
+
+        /**
+         * Annotations of version v, given those of version v - 1.
+         * @param mutable whether previous may be updated in place
+         */
+        int[] applyHunks(int[] previous, int v, boolean mutable) {
+            int from = hunkOffsets[v];
+            int to = hunkOffsets[v + 1];
+            if (from == to) return previous;
+
+            int length = previous.length;
+            boolean sameShape = true;
+            for (int h = from; h < to; h++) {
+                length += hunks[h * 3 + 2] - hunks[h * 3 + 1];
+                sameShape &= hunks[h * 3 + 1] == hunks[h * 3 + 2];
+            }
+            int number = versionNumbers[v];
+            if (sameShape && mutable) {
+                // Lines were only rewritten in place: update without copying the array
+                for (int h = from; h < to; h++) {
+                    Arrays.fill(previous, hunks[h * 3], hunks[h * 3] + hunks[h * 3 + 2], number);
+                }
+                return previous;
+            }
+
+            int[] next = new int[length];
+            int read = 0, write = 0;
+            for (int h = from; h < to; h++) {
+                int start = hunks[h * 3];
+                int copy = start - read;
+                System.arraycopy(previous, read, next, write, copy);
+                write += copy;
+                Arrays.fill(next, write, write + hunks[h * 3 + 2], number);
+                write += hunks[h * 3 + 2];
+                read = start + hunks[h * 3 + 1];
+            }
+            System.arraycopy(previous, read, next, write, previous.length - read);
+            return next;
+        }
+    }
+}
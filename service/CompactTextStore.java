@@ -0,0 +1,86 @@
+package service;
+
+import model.Version;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Text version store that shares identical lines between versions.
+ * Demonstrates: Interning, Flyweight, Primitive arrays
+ *
+ * Every line goes through one {@link LinePool}, so a version costs one int
+ * per line no matter how long the line is or how many versions repeat it.
+ * The version's String is only assembled when its content is requested.
+ */
+public class CompactTextStore implements VersionStore<String> {
+
+    private final LinePool pool = new LinePool();
+    private final List<int[]> lineIds = new ArrayList<>();
+    private int[] numbers = new int[64];
+    private LocalDateTime[] timestamps = new LocalDateTime[64];
+
+    @Override
+    public void add(Version<String> version) {
+        int index = lineIds.size();
+        if (index == numbers.length) {
+            numbers = Arrays.copyOf(numbers, index * 2);
+            timestamps = Arrays.copyOf(timestamps, index * 2);
+        }
+        numbers[index] = version.getNumber();
+        timestamps[index] = version.getTimestamp();
+        lineIds.add(version.getContent() == null ? null : pool.internLines(version.getContent()));
+    }
+
+    @Override
+    public Version<String> get(int index) {
+        return new Version<>(numbers[index], timestamps[index], getContent(index));
+    }
+
+    @Override
+    public String getContent(int index) {
+        int[] ids = lineIds.get(index);
+        return ids == null ? null : new String(pool.joinLines(ids), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Version<String> read(int index) {
+        return get(index);
+    }
+
+    @Override
+    public int getNumber(int index) {
+        return numbers[index];
+    }
+
+    @Override
+    public LocalDateTime getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    @Override
+    public int size() {
+        return lineIds.size();
+    }
+
+    @Override
+    public void clear() {
+        lineIds.clear();
+        pool.clear();
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    /**
+     * Number of distinct lines across all versions.
+     */
+    public int getDistinctLineCount() {
+        return pool.size();
+    }
+}
@@ -0,0 +1,427 @@
+package service;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Find/replace over a Swing {@link Document} without copying it into a String.
+ * Demonstrates: Off-EDT processing, Read locks, Primitive collections
+ *
+ * The document is read in line-aligned segments of about {@link #SEGMENT_CHARS}
+ * characters under its read lock, so the search can run on a worker thread
+ * while the EDT keeps painting. Literal queries use a Boyer-Moore-Horspool
+ * scan; regex queries use java.util.regex and never match across a segment
+ * boundary. Any edit made while the engine is reading aborts the pass.
+ */
+public class DocumentSearchEngine {
+
+    public static final int SEGMENT_CHARS = 1 << 20;
+
+    private final boolean matchCase;
+    private final Pattern pattern;
+    private final char[] needle;
+    private final int[] shift;
+
+    /**
+     * @throws PatternSyntaxException if a regex query is malformed
+     */
+    public DocumentSearchEngine(String query, boolean regex, boolean matchCase) {
+        if (query == null || query.isEmpty()) {
+            throw new IllegalArgumentException("Search text is empty");
+        }
+        this.matchCase = matchCase;
+        if (regex) {
+            int flags = matchCase ? Pattern.MULTILINE : Pattern.MULTILINE | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            this.pattern = Pattern.compile(query, flags);
+            this.needle = null;
+            this.shift = null;
+        } else {
+            this.pattern = null;
+            this.needle = matchCase ? query.toCharArray() : fold(query.toCharArray());
+            this.shift = new int[256];
+            int m = needle.length;
+            Arrays.fill(shift, m);
+            for (int i = 0; i < m - 1; i++) {
+                shift[needle[i] & 0xff] = m - 1 - i;
+            }
+        }
+    }
+
+    /**
+     * Receives matches segment by segment while a search is running.
+     */
+    public interface MatchListener {
+        void matchesFound(Matches batch);
+    }
+
+    /**
+     * Find every match, scanning from the line containing priorityOffset to the
+     * end first and then wrapping around, so the visible region is reported early.
+     * @return all matches in document order, or null if cancelled or the document changed
+     */
+    public Matches findAll(Document doc, int priorityOffset, MatchListener listener, BooleanSupplier cancelled) {
+        try (ChangeGuard guard = new ChangeGuard(doc)) {
+            int[] pivot = new int[1];
+            doc.render(() -> pivot[0] = lineStart(doc, Math.max(0, Math.min(priorityOffset, doc.getLength()))));
+
+            Matches forward = scanRange(doc, pivot[0], Integer.MAX_VALUE, listener, cancelled, guard, null);
+            if (forward == null) return null;
+            Matches wrapped = scanRange(doc, 0, pivot[0], listener, cancelled, guard, null);
+            if (wrapped == null) return null;
+
+            int minStart = wrapped.size() == 0 ? 0 : wrapped.getEnd(wrapped.size() - 1);
+            for (int i = 0; i < forward.size(); i++) {
+                if (forward.getStart(i) >= minStart) wrapped.add(forward.getStart(i), forward.getEnd(i));
+            }
+            return wrapped;
+        }
+    }
+
+    /**
+     * Compute a Replace All in the background: the matches, and for a regex
+     * the expansion of each. Nothing touches the document until
+     * {@link Replacement#apply()} is called on the EDT.
+     * @return the pending replacement, or null if cancelled or the document changed
+     */
+    public Replacement prepareReplaceAll(Document doc, String replacement, BooleanSupplier cancelled) {
+        ChangeGuard guard = new ChangeGuard(doc);
+        ReplaceState state = pattern == null ? null : new ReplaceState(replacement);
+        Matches matches = scanRange(doc, 0, Integer.MAX_VALUE, null, cancelled, guard, state);
+        if (matches == null || matches.size() == 0) {
+            guard.close();
+            return null;
+        }
+        return new Replacement(guard, matches, replacement, state);
+    }
+
+    /**
+     * Expand the replacement for one matched string, e.g. for a single "Replace".
+     * @return the replacement text, or null if the text is not a match
+     */
+    public String replacementFor(String matched, String replacement) {
+        if (pattern != null) {
+            Matcher m = pattern.matcher(matched);
+            return m.matches() ? m.replaceFirst(replacement) : null;
+        }
+        char[] text = matchCase ? matched.toCharArray() : fold(matched.toCharArray());
+        return Arrays.equals(text, needle) ? replacement : null;
+    }
+
+    /**
+     * Find the matches in [from, to) on the calling thread, e.g. to refresh
+     * the lines around a single replacement. from should be a line start.
+     */
+    public Matches findInRange(Document doc, int from, int to) {
+        try (ChangeGuard guard = new ChangeGuard(doc)) {
+            Matches found = scanRange(doc, from, to, null, () -> false, guard, null);
+            return found == null ? new Matches() : found;
+        }
+    }
+
+    private Matches scanRange(Document doc, int from, int to, MatchListener listener,
+                              BooleanSupplier cancelled, ChangeGuard guard, ReplaceState state) {
+        Matches all = new Matches();
+        int[] position = {from};
+        int[] minStart = {from};
+        boolean[] done = {false};
+        while (!done[0]) {
+            if (cancelled.getAsBoolean() || guard.changed.get()) return null;
+            Matches batch = new Matches();
+            doc.render(() -> {
+                int limit = Math.min(to, doc.getLength());
+                int segStart = position[0];
+                if (segStart >= limit) {
+                    done[0] = true;
+                    return;
+                }
+                int segEnd = Math.min(limit, lineEnd(doc, Math.min(doc.getLength(), segStart + SEGMENT_CHARS)));
+                int readEnd = pattern == null ? Math.min(doc.getLength(), segEnd + needle.length - 1) : segEnd;
+                Segment seg = new Segment();
+                seg.setPartialReturn(false);
+                try {
+                    doc.getText(segStart, readEnd - segStart, seg);
+                } catch (BadLocationException e) {
+                    done[0] = true;
+                    return;
+                }
+                if (pattern == null) {
+                    scanLiteral(seg, segStart, segEnd, minStart, batch);
+                } else {
+                    scanRegex(seg, segStart, minStart, batch, state);
+                }
+                position[0] = segEnd;
+            });
+            if (guard.changed.get()) return null;
+            if (batch.size() > 0) {
+                all.addAll(batch);
+                if (listener != null) listener.matchesFound(batch);
+            }
+        }
+        return all;
+    }
+
+    private void scanLiteral(Segment seg, int segStart, int segEnd, int[] minStart, Matches batch) {
+        char[] text = seg.array;
+        int base = seg.offset;
+        int n = seg.count;
+        int m = needle.length;
+        int reportLimit = segEnd - segStart;
+        int pos = Math.max(0, minStart[0] - segStart);
+        while (pos <= n - m && pos < reportLimit) {
+            int j = m - 1;
+            while (j >= 0 && charAt(text, base + pos + j) == needle[j]) j--;
+            if (j < 0) {
+                int start = segStart + pos;
+                batch.add(start, start + m);
+                minStart[0] = start + m;
+                pos += m;
+            } else {
+                pos += shift[charAt(text, base + pos + m - 1) & 0xff];
+            }
+        }
+    }
+
+    private void scanRegex(Segment seg, int segStart, int[] minStart, Matches batch, ReplaceState state) {
+        Matcher matcher = pattern.matcher(seg);
+        int appendPosition = 0;
+        while (matcher.find()) {
+            if (matcher.start() == matcher.end()) continue;
+            int start = segStart + matcher.start();
+            int end = segStart + matcher.end();
+            if (start < minStart[0]) continue;
+            batch.add(start, end);
+            if (state != null) {
+                state.add(state.expand(matcher, appendPosition));
+                appendPosition = matcher.end();
+            }
+            minStart[0] = end;
+        }
+    }
+
+    private char charAt(char[] text, int index) {
+        char c = text[index];
+        return matchCase ? c : Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static char[] fold(char[] chars) {
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return chars;
+    }
+
+    private static int lineStart(Document doc, int offset) {
+        Element root = doc.getDefaultRootElement();
+        return root.getElement(root.getElementIndex(offset)).getStartOffset();
+    }
+
+    private static int lineEnd(Document doc, int offset) {
+        Element root = doc.getDefaultRootElement();
+        return Math.min(doc.getLength(), root.getElement(root.getElementIndex(offset)).getEndOffset());
+    }
+
+    /**
+     * Sorted match ranges held in growable int arrays, so a million matches
+     * cost two int arrays rather than a million objects.
+     */
+    public static class Matches {
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int size;
+
+        public void add(int start, int end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+
+        public void addAll(Matches other) {
+            for (int i = 0; i < other.size; i++) add(other.starts[i], other.ends[i]);
+        }
+
+        public int size() { return size; }
+        public int getStart(int index) { return starts[index]; }
+        public int getEnd(int index) { return ends[index]; }
+
+        /**
+         * Update the matches for an edit that changed the document length by
+         * delta: those starting in [from, to) of the old text are replaced by
+         * the rescanned matches of that range, and later ones are shifted.
+         */
+        public void splice(int from, int to, int delta, Matches rescanned) {
+            int first = indexAtOrAfter(from);
+            int last = indexAtOrAfter(to);
+            int newSize = size - (last - first) + rescanned.size;
+            if (newSize > starts.length) {
+                starts = Arrays.copyOf(starts, Math.max(newSize, size * 2));
+                ends = Arrays.copyOf(ends, starts.length);
+            }
+            int tail = size - last;
+            int target = first + rescanned.size;
+            System.arraycopy(starts, last, starts, target, tail);
+            System.arraycopy(ends, last, ends, target, tail);
+            System.arraycopy(rescanned.starts, 0, starts, first, rescanned.size);
+            System.arraycopy(rescanned.ends, 0, ends, first, rescanned.size);
+            for (int i = target; i < newSize; i++) {
+                starts[i] += delta;
+                ends[i] += delta;
+            }
+            size = newSize;
+        }
+
+        /**
+         * @return index of the first match starting at or after offset, or size() if none
+         */
+        public int indexAtOrAfter(int offset) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] < offset) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * A computed Replace All waiting to be applied on the EDT.
+     */
+    public static class Replacement {
+        private final ChangeGuard guard;
+        private final Matches matches;
+        private final String replacement;
+        // Regex expansions, one per match; null for a literal query
+        private final ReplaceState expansions;
+
+        private Replacement(ChangeGuard guard, Matches matches, String replacement, ReplaceState expansions) {
+            this.guard = guard;
+            this.matches = matches;
+            this.replacement = replacement;
+            this.expansions = expansions;
+        }
+
+        public int getCount() { return matches.size(); }
+        public int getOffset() { return matches.getStart(0); }
+
+        /**
+         * Apply the replacement as a run of edits, each covering the matches
+         * within about {@link #SEGMENT_CHARS} characters of text, from the last
+         * match back to the first so the offsets still to go stay valid. No
+         * edit copies more than that much of the text between matches. Callers
+         * group the edits into one undo step. Must be called on the EDT.
+         * @return false if the document was edited since the replacement was computed
+         */
+        public boolean apply() throws BadLocationException {
+            try {
+                if (guard.changed.get()) return false;
+                guard.close();
+                Document doc = guard.doc;
+                Segment seg = new Segment();
+                seg.setPartialReturn(false);
+                StringBuilder text = new StringBuilder();
+                int end = matches.size();
+                while (end > 0) {
+                    int spanEnd = matches.getEnd(end - 1);
+                    int first = end - 1;
+                    while (first > 0 && spanEnd - matches.getStart(first - 1) <= SEGMENT_CHARS) first--;
+                    int spanStart = matches.getStart(first);
+
+                    text.setLength(0);
+                    for (int i = first; i < end; i++) {
+                        if (i > first) {
+                            int gap = matches.getEnd(i - 1);
+                            doc.getText(gap, matches.getStart(i) - gap, seg);
+                            text.append(seg.array, seg.offset, seg.count);
+                        }
+                        if (expansions == null) text.append(replacement);
+                        else expansions.appendTo(text, i);
+                    }
+                    if (doc instanceof AbstractDocument) {
+                        ((AbstractDocument) doc).replace(spanStart, spanEnd - spanStart, text.toString(), null);
+                    } else {
+                        doc.remove(spanStart, spanEnd - spanStart);
+                        doc.insertString(spanStart, text.toString(), null);
+                    }
+                    end = first;
+                }
+                return true;
+            } finally {
+                guard.close();
+            }
+        }
+
+        /**
+         * Drop the replacement without touching the document.
+         */
+        public void discard() {
+            guard.close();
+        }
+    }
+
+    /**
+     * Regex expansions of a Replace All, back to back in one buffer.
+     */
+    private static class ReplaceState {
+        private final String replacement;
+        private final StringBuilder expanded = new StringBuilder();
+        private int[] ends = new int[16];
+        private int size;
+        private final StringBuilder scratch = new StringBuilder();
+
+        ReplaceState(String replacement) {
+            this.replacement = replacement;
+        }
+
+        void add(String expansion) {
+            expanded.append(expansion);
+            if (size == ends.length) ends = Arrays.copyOf(ends, size * 2);
+            ends[size++] = expanded.length();
+        }
+
+        void appendTo(StringBuilder out, int index) {
+            out.append(expanded, index == 0 ? 0 : ends[index - 1], ends[index]);
+        }
+
+        String expand(Matcher matcher, int appendPosition) {
+            // appendReplacement also copies the text before the match; keep only the expansion
+            scratch.setLength(0);
+            matcher.appendReplacement(scratch, replacement);
+            return scratch.substring(matcher.start() - appendPosition);
+        }
+    }
+
+    private static class ChangeGuard implements DocumentListener, AutoCloseable {
+        private final Document doc;
+        private final AtomicBoolean changed = new AtomicBoolean(false);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        ChangeGuard(Document doc) {
+            this.doc = doc;
+            doc.addDocumentListener(this);
+        }
+
+        @Override public void insertUpdate(DocumentEvent e) { changed.set(true); }
+        @Override public void removeUpdate(DocumentEvent e) { changed.set(true); }
+        @Override public void changedUpdate(DocumentEvent e) { }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) doc.removeDocumentListener(this);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package service;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.InvocationEvent;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Detects Event Dispatch Thread stalls.
+ * Demonstrates: Monitoring, Daemon threads, AWT event queue
+ *
+ * A replacement EventQueue timestamps every event it dispatches. A daemon
+ * thread checks the event currently being dispatched and, once it has run
+ * longer than the threshold, captures the EDT's stack together with the
+ * event and the operation label set through {@link #operation}. Nested
+ * dispatch loops (modal dialogs) count as progress, not as a stall.
+ */
+public class EdtWatchdog {
+
+    private static volatile EdtWatchdog installed;
+
+    private final long thresholdNanos;
+    private final List<StallListener> listeners = new CopyOnWriteArrayList<>();
+    private final MonitoringQueue queue = new MonitoringQueue();
+    private final Thread monitor;
+    private volatile boolean running = true;
+
+    /**
+     * Receives stall reports on the watchdog thread.
+     */
+    public interface StallListener {
+        void stallDetected(StallReport report);
+
+        default void stallEnded(StallReport report, long totalMillis) {
+        }
+    }
+
+    /**
+     * A dispatch that ran longer than the threshold.
+     */
+    public static class StallReport {
+        private final long stallMillis;
+        private final String event;
+        private final String operation;
+        private final StackTraceElement[] stack;
+
+        StallReport(long stallMillis, String event, String operation, StackTraceElement[] stack) {
+            this.stallMillis = stallMillis;
+            this.event = event;
+            this.operation = operation;
+            this.stack = stack;
+        }
+
+        public long getStallMillis() { return stallMillis; }
+        public String getEvent() { return event; }
+        public String getOperation() { return operation; }
+        public StackTraceElement[] getStack() { return stack.clone(); }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("EDT stalled for ").append(stallMillis).append(" ms");
+            if (operation != null) sb.append(" in \"").append(operation).append('"');
+            sb.append(" while dispatching ").append(event);
+            for (StackTraceElement element : stack) sb.append("\n\tat ").append(element);
+            return sb.toString();
+        }
+    }
+
+    private EdtWatchdog(long thresholdMillis) {
+        this.thresholdNanos = thresholdMillis * 1_000_000L;
+        long period = Math.max(10, thresholdMillis / 4);
+        monitor = new Thread(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(period);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                check();
+            }
+        }, "EDT-Watchdog");
+        monitor.setDaemon(true);
+    }
+
+    /**
+     * Start watching the system event queue.
+     * @param thresholdMillis dispatch time above which a stall is reported
+     */
+    public static synchronized EdtWatchdog install(long thresholdMillis) {
+        if (installed != null) installed.uninstall();
+        EdtWatchdog watchdog = new EdtWatchdog(thresholdMillis);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(watchdog.queue);
+        watchdog.monitor.start();
+        installed = watchdog;
+        return watchdog;
+    }
+
+    public synchronized void uninstall() {
+        if (!running) return;
+        running = false;
+        monitor.interrupt();
+        queue.pop();
+        if (installed == this) installed = null;
+    }
+
+    public void addStallListener(StallListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeStallListener(StallListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Run an EDT task under a name that stall reports will show.
+     */
+    public static void operation(String name, Runnable task) {
+        operation(name, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public static <T> T operation(String name, Supplier<T> task) {
+        EdtWatchdog watchdog = installed;
+        Frame frame = watchdog == null || !EventQueue.isDispatchThread() ? null : watchdog.queue.current;
+        if (frame == null) return task.get();
+        String previous = frame.operation;
+        frame.operation = name;
+        try {
+            return task.get();
+        } finally {
+            frame.operation = previous;
+        }
+    }
+
+    private void check() {
+        Frame frame = queue.current;
+        if (frame == null || frame.waiting || frame.reported != null) return;
+        long elapsed = System.nanoTime() - frame.start;
+        if (elapsed < thresholdNanos) return;
+
+        StackTraceElement[] stack = frame.thread.getStackTrace();
+        if (queue.current != frame) return;
+        StallReport report = new StallReport(elapsed / 1_000_000, describe(frame.event), frame.operation, stack);
+        frame.reported = report;
+        for (StallListener listener : listeners) listener.stallDetected(report);
+    }
+
+    private void finished(Frame frame) {
+        if (frame.reported == null) return;
+        long total = (System.nanoTime() - frame.start) / 1_000_000;
+        for (StallListener listener : listeners) listener.stallEnded(frame.reported, total);
+    }
+
+    private static String describe(AWTEvent event) {
+        String source = event.getSource() == null ? "?" : event.getSource().getClass().getName();
+        if (event instanceof ActionEvent) {
+            return "ActionEvent \"" + ((ActionEvent) event).getActionCommand() + "\" from " + source;
+        }
+        if (event instanceof InvocationEvent) {
+            return event.paramString();
+        }
+        return event.getClass().getSimpleName() + "[" + event.paramString() + "] on " + source;
+    }
+
+    /**
+     * One (possibly nested) dispatch in progress.
+     */
+    private static final class Frame {
+        final AWTEvent event;
+        final Thread thread;
+        final Frame parent;
+        volatile long start;
+        volatile String operation;
+        volatile StallReport reported;
+        volatile boolean waiting;
+
+        Frame(AWTEvent event, Frame parent) {
+            this.event = event;
+            this.thread = Thread.currentThread();
+            this.parent = parent;
+            this.start = System.nanoTime();
+        }
+    }
+
+    private final class MonitoringQueue extends EventQueue {
+        volatile Frame current;
+
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            Frame frame = new Frame(event, current);
+            current = frame;
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                current = frame.parent;
+                if (frame.parent != null) {
+                    // The outer event was waiting in a nested loop, not stuck
+                    frame.parent.start = System.nanoTime();
+                }
+                finished(frame);
+            }
+        }
+
+        @Override
+        public AWTEvent getNextEvent() throws InterruptedException {
+            // Only reached with a frame in progress from a nested loop, e.g. a modal dialog
+            Frame frame = current;
+            if (frame != null) frame.waiting = true;
+            try {
+                return super.getNextEvent();
+            } finally {
+                if (frame != null) {
+                    frame.start = System.nanoTime();
+                    frame.waiting = false;
+                }
+            }
+        }
+
+        // Widened so the watchdog can remove itself from the queue stack
+        @Override
+        public void pop() {
+            super.pop();
+        }
+    }
+}
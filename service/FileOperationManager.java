@@ -78,6 +78,40 @@ public class FileOperationManager {
         }
     }
     
+    /**
+     * Open a known file directly, bypassing the file chooser.
+     * Offers to save the current content first, as New does.
+     */
+    public String openFile(JFrame frame, File file, String currentContent) {
+        try {
+            // Check if there are unsaved changes
+            if (currentContent != null && !currentContent.trim().isEmpty()) {
+                int result = JOptionPane.showConfirmDialog(
+                    frame,
+                    "Do you want to save current content before opening " + file.getName() + "?",
+                    "Open File",
+                    JOptionPane.YES_NO_CANCEL_OPTION
+                );
+
+                if (result == JOptionPane.YES_OPTION) {
+                    if (new SaveFileOperation().execute(frame, currentContent) == null) {
+                        return null; // Save was cancelled
+                    }
+                } else if (result != JOptionPane.NO_OPTION) {
+                    return null; // User cancelled
+                }
+            }
+
+            String content = new OpenFileOperation().readFileContent(file);
+            currentFilePath = file.getAbsolutePath();
+            isModified = false;
+            return content;
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(frame, "Error: " + e.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+    }
+    
     // Getters and setters
     public String getCurrentFilePath() { return currentFilePath; }
     public void setCurrentFilePath(String path) { this.currentFilePath = path; }
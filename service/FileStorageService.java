@@ -2,6 +2,9 @@ package service;
 
 import model.Version;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
 
 public class FileStorageService {
@@ -13,16 +16,70 @@ public class FileStorageService {
     }
 
     public <T> void saveToFile(List<Version<T>> versions) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-            oos.writeObject(versions);
-        }
+        VersionArchive.write(file, versions);
+    }
+
+    /**
+     * Save the whole history, reading one version at a time.
+     */
+    public <T> void saveToFile(VersionManager<T> versions) throws IOException {
+        VersionArchive.write(file, versions.getVersionCount(), versions::readVersion);
     }
 
-    @SuppressWarnings("unchecked")
     public <T> List<Version<T>> loadFromFile() throws IOException, ClassNotFoundException {
+        List<Version<T>> versions = new ArrayList<>();
+        return VersionArchive.<T>read(file, versions::add) == null ? null : versions;
+    }
+
+    /**
+     * Replace the history with every intact version, one at a time,
+     * reporting any damage that was skipped. If the archive cannot be read
+     * the history is left unchanged.
+     * @return null if nothing has been saved yet; the history is then unchanged
+     */
+    public <T> VersionArchive.LoadResult load(VersionManager<T> versions) throws IOException, ClassNotFoundException {
         if (!file.exists()) return null;
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            return (List<Version<T>>) ois.readObject();
+        versions.beginLoad();
+        VersionArchive.LoadResult result = null;
+        try {
+            result = VersionArchive.read(file, versions::loadVersion);
+        } finally {
+            if (result != null) versions.endLoad();
+            else versions.abortLoad();
+        }
+        return result;
+    }
+
+    /**
+     * Rewrite the archive with the recovered history, keeping the damaged
+     * file aside as versions.ser.corrupt.
+     */
+    public <T> void repair(VersionManager<T> recovered) throws IOException {
+        if (file.exists()) {
+            Files.move(file.toPath(), new File(file.getPath() + ".corrupt").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
         }
+        saveToFile(recovered);
+    }
+
+    /**
+     * Save per-line annotations next to the versions file.
+     */
+    public void saveAnnotations(Serializable annotations) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(annotationsFile()))) {
+            oos.writeObject(annotations);
+        }
+    }
+
+    public Object loadAnnotations() throws IOException, ClassNotFoundException {
+        File annotations = annotationsFile();
+        if (!annotations.exists()) return null;
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(annotations))) {
+            return ois.readObject();
+        }
+    }
+
+    private File annotationsFile() {
+        return new File(file.getPath() + ".blame");
     }
 }
@@ -0,0 +1,353 @@
+package service;
+
+import model.SearchHit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Searches every text file below a folder for a literal string or a regex.
+ * Demonstrates: Fork/Join, Memory-mapped I/O, Cancellation
+ *
+ * Directories are walked with a bounded fork/join pool; each file is
+ * memory-mapped and literal queries are matched directly on the bytes with a
+ * Boyer-Moore-Horspool scan, so no per-file String is built. Hits are handed
+ * to the caller as soon as they are found, one per matching line.
+ */
+public class FolderSearchService {
+
+    private static final Set<String> IGNORED_DIRECTORIES = Set.of(
+            ".git", ".svn", ".hg", ".idea", "node_modules", "target", "build", "out", "bin");
+    private static final int BINARY_PROBE_BYTES = 8000;
+    private static final int MAX_PREVIEW_CHARS = 200;
+    private static final int CANCEL_CHECK_BYTES = 1 << 20;
+
+    private final ForkJoinPool pool;
+
+    public FolderSearchService() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public FolderSearchService(int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Start searching the given folder in the background.
+     * @param root folder to walk
+     * @param query text or regular expression to look for
+     * @param regex whether the query is a regular expression
+     * @param matchCase whether matching is case sensitive
+     * @param onHit receives hits from worker threads, so it must be thread-safe
+     * @return handle used to wait for or cancel the search
+     * @throws PatternSyntaxException if a regex query is malformed
+     */
+    public SearchTask search(File root, String query, boolean regex, boolean matchCase, Consumer<SearchHit> onHit) {
+        FileMatcher matcher = createMatcher(query, regex, matchCase);
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        ForkJoinTask<Void> task = pool.submit(new DirectoryTask(root, matcher, onHit, cancelled));
+        return new SearchTask(task, cancelled);
+    }
+
+    /**
+     * Cleanup resources
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static FileMatcher createMatcher(String query, boolean regex, boolean matchCase) {
+        if (query == null || query.isEmpty()) {
+            throw new IllegalArgumentException("Search text is empty");
+        }
+        if (regex) {
+            int flags = matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            return new RegexMatcher(Pattern.compile(query, flags | Pattern.MULTILINE));
+        }
+        boolean ascii = query.chars().allMatch(c -> c < 0x80);
+        if (!matchCase && !ascii) {
+            // Byte-level case folding only covers ASCII
+            return new RegexMatcher(Pattern.compile(Pattern.quote(query),
+                    Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+        }
+        return new LiteralMatcher(query.getBytes(StandardCharsets.UTF_8), matchCase);
+    }
+
+    /**
+     * Handle for a running search
+     */
+    public static class SearchTask {
+        private final ForkJoinTask<Void> task;
+        private final AtomicBoolean cancelled;
+
+        SearchTask(ForkJoinTask<Void> task, AtomicBoolean cancelled) {
+            this.task = task;
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * Block until every file has been searched or the search is cancelled.
+         */
+        public void await() throws InterruptedException {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Folder search failed", e.getCause());
+            } catch (java.util.concurrent.CancellationException ignored) {
+            }
+        }
+
+        public void cancel() {
+            cancelled.set(true);
+            task.cancel(false);
+        }
+
+        public boolean isCancelled() { return cancelled.get(); }
+        public boolean isDone() { return task.isDone(); }
+    }
+
+    private static class DirectoryTask extends RecursiveAction {
+        private final File directory;
+        private final FileMatcher matcher;
+        private final Consumer<SearchHit> onHit;
+        private final AtomicBoolean cancelled;
+
+        DirectoryTask(File directory, FileMatcher matcher, Consumer<SearchHit> onHit, AtomicBoolean cancelled) {
+            this.directory = directory;
+            this.matcher = matcher;
+            this.onHit = onHit;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            File[] children = directory.listFiles();
+            if (children == null || cancelled.get()) return;
+
+            List<RecursiveAction> subtasks = new ArrayList<>();
+            for (File child : children) {
+                if (child.isHidden() || Files.isSymbolicLink(child.toPath())) continue;
+                if (child.isDirectory()) {
+                    if (!IGNORED_DIRECTORIES.contains(child.getName())) {
+                        subtasks.add(new DirectoryTask(child, matcher, onHit, cancelled));
+                    }
+                } else if (child.isFile()) {
+                    subtasks.add(new FileTask(child, matcher, onHit, cancelled));
+                }
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    private static class FileTask extends RecursiveAction {
+        private final File file;
+        private final FileMatcher matcher;
+        private final Consumer<SearchHit> onHit;
+        private final AtomicBoolean cancelled;
+
+        FileTask(File file, FileMatcher matcher, Consumer<SearchHit> onHit, AtomicBoolean cancelled) {
+            this.file = file;
+            this.matcher = matcher;
+            this.onHit = onHit;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.get()) return;
+            long size = file.length();
+            if (size == 0 || size > Integer.MAX_VALUE) return;
+
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (isBinary(buffer)) return;
+                matcher.scan(file, buffer, onHit, cancelled);
+            } catch (IOException | UnsupportedOperationException e) {
+                // Unreadable or vanished files are skipped
+            }
+        }
+
+        private static boolean isBinary(ByteBuffer buffer) {
+            int probe = Math.min(buffer.limit(), BINARY_PROBE_BYTES);
+            for (int i = 0; i < probe; i++) {
+                if (buffer.get(i) == 0) return true;
+            }
+            return false;
+        }
+    }
+
+    private interface FileMatcher {
+        void scan(File file, ByteBuffer buffer, Consumer<SearchHit> onHit, AtomicBoolean cancelled);
+    }
+
+    /**
+     * Boyer-Moore-Horspool over the raw UTF-8 bytes, with optional ASCII case folding.
+     */
+    private static class LiteralMatcher implements FileMatcher {
+        private final byte[] needle;
+        private final boolean matchCase;
+        private final int[] shift = new int[256];
+
+        LiteralMatcher(byte[] needle, boolean matchCase) {
+            this.matchCase = matchCase;
+            this.needle = needle.clone();
+            if (!matchCase) {
+                for (int i = 0; i < this.needle.length; i++) this.needle[i] = fold(this.needle[i]);
+            }
+            int m = this.needle.length;
+            java.util.Arrays.fill(shift, m);
+            for (int i = 0; i < m - 1; i++) {
+                int b = this.needle[i] & 0xff;
+                shift[b] = m - 1 - i;
+                if (!matchCase && b >= 'a' && b <= 'z') shift[b - 32] = m - 1 - i;
+            }
+        }
+
+        @Override
+        public void scan(File file, ByteBuffer buffer, Consumer<SearchHit> onHit, AtomicBoolean cancelled) {
+            int m = needle.length;
+            int n = buffer.limit();
+            LineTracker lines = new LineTracker(buffer);
+            int nextCancelCheck = CANCEL_CHECK_BYTES;
+
+            int pos = 0;
+            while (pos <= n - m) {
+                if (pos >= nextCancelCheck) {
+                    if (cancelled.get()) return;
+                    nextCancelCheck = pos + CANCEL_CHECK_BYTES;
+                }
+                int j = m - 1;
+                while (j >= 0 && byteAt(buffer, pos + j) == needle[j]) j--;
+                if (j < 0) {
+                    onHit.accept(new SearchHit(file, lines.lineNumberAt(pos), lines.preview(pos)));
+                    pos = lines.nextLineStart(pos);
+                } else {
+                    pos += shift[buffer.get(pos + m - 1) & 0xff];
+                }
+            }
+        }
+
+        private byte byteAt(ByteBuffer buffer, int index) {
+            byte b = buffer.get(index);
+            return matchCase ? b : fold(b);
+        }
+
+        private static byte fold(byte b) {
+            return (b >= 'A' && b <= 'Z') ? (byte) (b + 32) : b;
+        }
+    }
+
+    /**
+     * Regex fallback: decodes the mapped file once and runs the pattern over it.
+     */
+    private static class RegexMatcher implements FileMatcher {
+        private final Pattern pattern;
+
+        RegexMatcher(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public void scan(File file, ByteBuffer buffer, Consumer<SearchHit> onHit, AtomicBoolean cancelled) {
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer text;
+            try {
+                text = decoder.decode(buffer.duplicate());
+            } catch (CharacterCodingException e) {
+                return;
+            }
+
+            Matcher matcher = pattern.matcher(text);
+            int lineNumber = 1;
+            int counted = 0;
+            int from = 0;
+            while (from <= text.length() && matcher.find(from)) {
+                if (cancelled.get()) return;
+                int start = matcher.start();
+                for (int i = counted; i < start; i++) {
+                    if (text.charAt(i) == '\n') lineNumber++;
+                }
+                int lineStart = start;
+                while (lineStart > 0 && text.charAt(lineStart - 1) != '\n') lineStart--;
+                int lineEnd = start;
+                while (lineEnd < text.length() && text.charAt(lineEnd) != '\n') lineEnd++;
+
+                onHit.accept(new SearchHit(file, lineNumber, trimPreview(
+                        text.subSequence(lineStart, Math.min(lineEnd, lineStart + MAX_PREVIEW_CHARS)).toString())));
+                counted = lineEnd;
+                from = lineEnd + 1;
+            }
+        }
+    }
+
+    /**
+     * Counts newlines incrementally so that hits further down a file do not rescan it.
+     */
+    private static class LineTracker {
+        private final ByteBuffer buffer;
+        private int countedUpTo;
+        private int lineNumber = 1;
+
+        LineTracker(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int lineNumberAt(int pos) {
+            for (int i = countedUpTo; i < pos; i++) {
+                if (buffer.get(i) == '\n') lineNumber++;
+            }
+            countedUpTo = pos;
+            return lineNumber;
+        }
+
+        int nextLineStart(int pos) {
+            int end = lineEnd(pos);
+            lineNumberAt(Math.min(end + 1, buffer.limit()));
+            return end + 1;
+        }
+
+        String preview(int pos) {
+            int start = pos;
+            while (start > 0 && buffer.get(start - 1) != '\n') start--;
+            int end = Math.min(lineEnd(pos), start + MAX_PREVIEW_CHARS * 4);
+            byte[] bytes = new byte[end - start];
+            buffer.duplicate().position(start).get(bytes);
+            String line = new String(bytes, StandardCharsets.UTF_8);
+            return trimPreview(line.length() > MAX_PREVIEW_CHARS ? line.substring(0, MAX_PREVIEW_CHARS) : line);
+        }
+
+        private int lineEnd(int pos) {
+            int end = pos;
+            while (end < buffer.limit() && buffer.get(end) != '\n') end++;
+            return end;
+        }
+    }
+
+    private static String trimPreview(String line) {
+        return line.replace("\r", "").strip();
+    }
+}
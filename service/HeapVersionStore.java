@@ -0,0 +1,58 @@
+package service;
+
+import model.Version;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps every version object as-is on the heap.
+ */
+public class HeapVersionStore<T> implements VersionStore<T> {
+    private final List<Version<T>> versions = new ArrayList<>();
+
+    @Override
+    public void add(Version<T> version) {
+        versions.add(version);
+    }
+
+    @Override
+    public Version<T> get(int index) {
+        return versions.get(index);
+    }
+
+    @Override
+    public T getContent(int index) {
+        return versions.get(index).getContent();
+    }
+
+    @Override
+    public Version<T> read(int index) {
+        return versions.get(index);
+    }
+
+    @Override
+    public int getNumber(int index) {
+        return versions.get(index).getNumber();
+    }
+
+    @Override
+    public LocalDateTime getTimestamp(int index) {
+        return versions.get(index).getTimestamp();
+    }
+
+    @Override
+    public int size() {
+        return versions.size();
+    }
+
+    @Override
+    public void clear() {
+        versions.clear();
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+}
@@ -0,0 +1,301 @@
+package service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Interned pool of text lines addressed by int ids.
+ * Demonstrates: Open addressing, Primitive arrays, Byte storage
+ *
+ * Line bytes are stored as UTF-8 in fixed-size byte[] pages, so the pool
+ * costs a handful of large arrays instead of one String (and its header and
+ * char array) per line. Lookups hash the characters of the caller's text
+ * directly, so interning an already-known ASCII line allocates nothing.
+ * Every intern counts a reference; an owner that gives lines back with
+ * {@link #release(int)} can {@link #compact()} the pool to the lines still
+ * in use.
+ */
+public class LinePool {
+
+    private static final int PAGE_SIZE = 1 << 20;
+    private static final int ASCII_FLAG = 1 << 31;
+
+    private byte[][] pages = new byte[4][];
+    private int pageCount;
+    private int pageUsed = PAGE_SIZE;
+
+    // Per line id: page, offset in page, byte length (with ASCII_FLAG), hash and references
+    private int[] linePage = new int[1024];
+    private int[] lineOffset = new int[1024];
+    private int[] lineLength = new int[1024];
+    private int[] lineHash = new int[1024];
+    private int[] lineRefs = new int[1024];
+    private int size;
+
+    // Open-addressing table of line ids, -1 for empty slots
+    private int[] table = newTable(2048);
+
+    private long byteCount;
+    private long liveBytes;
+    private int liveLines;
+
+    /**
+     * Get the id of text[start, end), adding it to the pool if it is new.
+     */
+    public int intern(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != -1) {
+            int id = table[slot];
+            if (lineHash[id] == hash && matches(id, text, start, end)) {
+                reference(id);
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = store(text, start, end, hash);
+        table[slot] = id;
+        reference(id);
+        if (size * 2 > table.length) rehash(table.length * 2);
+        return id;
+    }
+
+    /**
+     * Intern every line of text, splitting at '\n'.
+     * @return the line ids in order; text ending in '\n' ends with an empty line
+     */
+    public int[] internLines(CharSequence text) {
+        int count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        int[] ids = new int[count];
+        int start = 0;
+        int line = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || text.charAt(i) == '\n') {
+                ids[line++] = intern(text, start, i);
+                start = i + 1;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * UTF-8 bytes of the lines joined with '\n'; the inverse of {@link #internLines}.
+     */
+    public byte[] joinLines(int[] ids) {
+        int length = ids.length - 1;
+        for (int id : ids) length += byteLength(id);
+        byte[] bytes = new byte[length];
+        int position = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) bytes[position++] = '\n';
+            position = copyBytes(ids[i], bytes, position);
+        }
+        return bytes;
+    }
+
+    /**
+     * Give back one reference taken by {@link #intern}. A line without
+     * references keeps its id until the next {@link #compact()}.
+     */
+    public void release(int id) {
+        if (--lineRefs[id] == 0) {
+            liveBytes -= byteLength(id);
+            liveLines--;
+        }
+    }
+
+    /**
+     * Drop the lines nobody references and renumber the rest, copying their
+     * bytes into fresh pages.
+     * @return the new id of every old id, -1 for dropped lines
+     */
+    public int[] compact() {
+        int[] remap = new int[size];
+        int capacity = Math.max(1024, liveLines + liveLines / 2);
+        int[] pageOf = new int[capacity];
+        int[] offsetOf = new int[capacity];
+        int[] lengthOf = new int[capacity];
+        int[] hashOf = new int[capacity];
+        int[] refsOf = new int[capacity];
+        byte[][] oldPages = pages;
+        pages = new byte[4][];
+        pageCount = 0;
+        pageUsed = PAGE_SIZE;
+        int live = 0;
+        for (int id = 0; id < size; id++) {
+            if (lineRefs[id] == 0) {
+                remap[id] = -1;
+                continue;
+            }
+            int length = byteLength(id);
+            byte[] page = reserve(length);
+            System.arraycopy(oldPages[linePage[id]], lineOffset[id], page, pageUsed, length);
+            pageOf[live] = pageCount - 1;
+            offsetOf[live] = pageUsed;
+            pageUsed += length;
+            lengthOf[live] = lineLength[id];
+            hashOf[live] = lineHash[id];
+            refsOf[live] = lineRefs[id];
+            remap[id] = live++;
+        }
+        linePage = pageOf;
+        lineOffset = offsetOf;
+        lineLength = lengthOf;
+        lineHash = hashOf;
+        lineRefs = refsOf;
+        size = live;
+        byteCount = liveBytes;
+        int tableSize = 2048;
+        while (tableSize < size * 2) tableSize *= 2;
+        rehash(tableSize);
+        return remap;
+    }
+
+    /**
+     * Append the UTF-8 bytes of a line to target at position.
+     * @return position after the copied bytes
+     */
+    public int copyBytes(int id, byte[] target, int position) {
+        int length = lineLength[id] & ~ASCII_FLAG;
+        System.arraycopy(pages[linePage[id]], lineOffset[id], target, position, length);
+        return position + length;
+    }
+
+    public int byteLength(int id) {
+        return lineLength[id] & ~ASCII_FLAG;
+    }
+
+    public String getLine(int id) {
+        return new String(pages[linePage[id]], lineOffset[id], byteLength(id), StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Approximate bytes held by the pool's arrays.
+     */
+    public long memoryUsage() {
+        long pageBytes = 0;
+        for (int i = 0; i < pageCount; i++) pageBytes += pages[i].length;
+        return pageBytes + (long) linePage.length * 20 + (long) table.length * 4;
+    }
+
+    /**
+     * Approximate bytes the pool would hold after {@link #compact()}.
+     */
+    public long liveMemoryUsage() {
+        return PAGE_SIZE + liveBytes + (long) liveLines * 38;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public void clear() {
+        pages = new byte[4][];
+        pageCount = 0;
+        pageUsed = PAGE_SIZE;
+        size = 0;
+        byteCount = 0;
+        liveBytes = 0;
+        liveLines = 0;
+        table = newTable(2048);
+    }
+
+    private int store(CharSequence text, int start, int end, int hash) {
+        boolean ascii = true;
+        for (int i = start; i < end && ascii; i++) ascii = text.charAt(i) < 0x80;
+        byte[] encoded = ascii ? null : text.subSequence(start, end).toString().getBytes(StandardCharsets.UTF_8);
+        int length = ascii ? end - start : encoded.length;
+
+        if (size == linePage.length) {
+            int capacity = size * 2;
+            linePage = Arrays.copyOf(linePage, capacity);
+            lineOffset = Arrays.copyOf(lineOffset, capacity);
+            lineLength = Arrays.copyOf(lineLength, capacity);
+            lineHash = Arrays.copyOf(lineHash, capacity);
+            lineRefs = Arrays.copyOf(lineRefs, capacity);
+        }
+        byte[] page = reserve(length);
+        int offset = pageUsed;
+        if (ascii) {
+            for (int i = start; i < end; i++) page[pageUsed++] = (byte) text.charAt(i);
+        } else {
+            System.arraycopy(encoded, 0, page, pageUsed, length);
+            pageUsed += length;
+        }
+
+        int id = size++;
+        linePage[id] = pageCount - 1;
+        lineOffset[id] = offset;
+        lineLength[id] = ascii ? length | ASCII_FLAG : length;
+        lineHash[id] = hash;
+        lineRefs[id] = 0;
+        byteCount += length;
+        return id;
+    }
+
+    private void reference(int id) {
+        if (lineRefs[id]++ == 0) {
+            liveBytes += byteLength(id);
+            liveLines++;
+        }
+    }
+
+    private byte[] reserve(int length) {
+        if (pageUsed + length <= PAGE_SIZE && pageCount > 0 && pages[pageCount - 1].length == PAGE_SIZE) {
+            return pages[pageCount - 1];
+        }
+        if (pageCount == pages.length) pages = Arrays.copyOf(pages, pageCount * 2);
+        // Lines longer than a page get a page of their own
+        byte[] page = new byte[Math.max(PAGE_SIZE, length)];
+        pages[pageCount++] = page;
+        pageUsed = 0;
+        return page;
+    }
+
+    private boolean matches(int id, CharSequence text, int start, int end) {
+        byte[] page = pages[linePage[id]];
+        int offset = lineOffset[id];
+        int length = lineLength[id] & ~ASCII_FLAG;
+        if ((lineLength[id] & ASCII_FLAG) != 0) {
+            if (length != end - start) return false;
+            for (int i = 0; i < length; i++) {
+                if (page[offset + i] != text.charAt(start + i)) return false;
+            }
+            return true;
+        }
+        byte[] encoded = text.subSequence(start, end).toString().getBytes(StandardCharsets.UTF_8);
+        return Arrays.equals(page, offset, offset + length, encoded, 0, encoded.length);
+    }
+
+    private void rehash(int capacity) {
+        int[] next = newTable(capacity);
+        int mask = next.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = lineHash[id] & mask;
+            while (next[slot] != -1) slot = (slot + 1) & mask;
+            next[slot] = id;
+        }
+        table = next;
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) h = 31 * h + text.charAt(i);
+        // Spread the bits so linear probing does not cluster on similar lines
+        return h ^ (h >>> 16) ^ (h >>> 7);
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+        return table;
+    }
+}
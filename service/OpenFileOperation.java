@@ -27,7 +27,7 @@ public class OpenFileOperation implements FileOperation<String> {
     /**
      * Read file content using File I/O
      */
-    private String readFileContent(File file) throws IOException {
+    String readFileContent(File file) throws IOException {
         StringBuilder content = new StringBuilder();
         
         // Using try-with-resources for automatic resource management
@@ -0,0 +1,363 @@
+package service;
+
+import model.Version;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Text version store that keeps recently used versions on the heap and
+ * spills the rest to a memory-mapped file.
+ * Demonstrates: Tiered storage, LRU, Memory-mapped I/O, JMX notifications
+ *
+ * Hot versions are held as in {@link CompactTextStore}: an int[] of line
+ * ids into one shared {@link LinePool}, so lines repeated across versions
+ * are stored once. The newest versions always stay hot; older ones stay hot
+ * while the id arrays and the pool fit the heap budget, least recently read
+ * first out. A version is written to the spill file once, as UTF-8, the
+ * first time it is evicted, and its lines are released; the pool is
+ * compacted once most of it is lines no hot version uses. Reading a cold
+ * version decodes it from the mapping and makes it hot again. The budget
+ * halves whenever a heap pool is still over its threshold after a
+ * collection, and grows back slowly while the heap has room.
+ */
+public class TieredTextStore implements VersionStore<String> {
+
+    private static final int KEEP_RECENT = 8;
+    private static final double PRESSURE_THRESHOLD = 0.7;
+    private static final int SEGMENT_SHIFT = 26;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final long MIN_HOT_BYTES = 4L << 20;
+
+    private static final long NOT_SPILLED = -1;
+    private static final long NULL_CONTENT = -2;
+
+    private int[] numbers = new int[64];
+    private LocalDateTime[] timestamps = new LocalDateTime[64];
+    private long[] spillOffsets = new long[64];
+    private int[] spillLengths = new int[64];
+    // Line ids of hot versions, null for cold ones
+    private int[][] lineIds = new int[64][];
+    private int size;
+
+    // Hot version indexes, least recently used first
+    private final LinkedHashSet<Integer> hot = new LinkedHashSet<>();
+    private final LinePool pool = new LinePool();
+    // Bytes of the hot versions' id arrays; the pool is counted separately
+    private long hotBytes;
+    private final long maxHotBytes;
+    private long hotBudget;
+
+    private File spillFile;
+    private FileChannel spillChannel;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long spillEnd;
+
+    private final NotificationListener pressureListener = this::memoryNotification;
+    private final NotificationEmitter memoryEmitter;
+
+    public TieredTextStore() {
+        this(Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /**
+     * @param hotBytes heap bytes versions may use before older ones spill
+     */
+    public TieredTextStore(long hotBytes) {
+        this.maxHotBytes = Math.max(MIN_HOT_BYTES, hotBytes);
+        this.hotBudget = maxHotBytes;
+        memoryEmitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        watchHeapPools();
+        memoryEmitter.addNotificationListener(pressureListener, null, null);
+    }
+
+    @Override
+    public synchronized void add(Version<String> version) {
+        if (size == numbers.length) {
+            int capacity = size * 2;
+            numbers = Arrays.copyOf(numbers, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            spillOffsets = Arrays.copyOf(spillOffsets, capacity);
+            spillLengths = Arrays.copyOf(spillLengths, capacity);
+            lineIds = Arrays.copyOf(lineIds, capacity);
+        }
+        int index = size++;
+        numbers[index] = version.getNumber();
+        timestamps[index] = version.getTimestamp();
+        String content = version.getContent();
+        spillOffsets[index] = content == null ? NULL_CONTENT : NOT_SPILLED;
+        if (content != null) makeHot(index, content);
+        if (hotBudget < maxHotBytes && !heapUnderPressure()) {
+            hotBudget = Math.min(maxHotBytes, hotBudget + hotBudget / 4);
+        }
+        evictToBudget();
+    }
+
+    @Override
+    public synchronized Version<String> get(int index) {
+        return new Version<>(numbers[index], timestamps[index], getContent(index));
+    }
+
+    @Override
+    public synchronized String getContent(int index) {
+        checkIndex(index);
+        if (spillOffsets[index] == NULL_CONTENT) return null;
+        if (lineIds[index] != null) {
+            // Move to the most recently used end
+            hot.remove(index);
+            hot.add(index);
+            return new String(pool.joinLines(lineIds[index]), StandardCharsets.UTF_8);
+        }
+        String content = readSpilled(index);
+        makeHot(index, content);
+        evictToBudget();
+        return content;
+    }
+
+    /**
+     * Like {@link #get(int)}, but a cold version is decoded without being
+     * made hot and a hot one keeps its place in the LRU order.
+     */
+    @Override
+    public synchronized Version<String> read(int index) {
+        checkIndex(index);
+        String content;
+        if (spillOffsets[index] == NULL_CONTENT) content = null;
+        else if (lineIds[index] != null) content = new String(pool.joinLines(lineIds[index]), StandardCharsets.UTF_8);
+        else content = readSpilled(index);
+        return new Version<>(numbers[index], timestamps[index], content);
+    }
+
+    @Override
+    public synchronized int getNumber(int index) {
+        checkIndex(index);
+        return numbers[index];
+    }
+
+    @Override
+    public synchronized LocalDateTime getTimestamp(int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void clear() {
+        Arrays.fill(lineIds, 0, size, null);
+        size = 0;
+        hot.clear();
+        pool.clear();
+        hotBytes = 0;
+        // The mapped segments are reused from the start
+        spillEnd = 0;
+    }
+
+    /**
+     * Stop listening for heap pressure and delete the spill file.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            memoryEmitter.removeNotificationListener(pressureListener);
+        } catch (javax.management.ListenerNotFoundException ignored) {
+        }
+        clear();
+        segments = new MappedByteBuffer[0];
+        if (spillChannel != null) {
+            try {
+                spillChannel.close();
+            } catch (IOException ignored) {
+            }
+            spillChannel = null;
+            spillFile.delete();
+        }
+    }
+
+    public synchronized int getHotCount() {
+        return hot.size();
+    }
+
+    public synchronized long getHotBytes() {
+        return hotBytes + pool.memoryUsage();
+    }
+
+    public synchronized long getSpilledBytes() {
+        return spillEnd;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Version " + index);
+    }
+
+    // ---- tiering ----
+
+    private void makeHot(int index, String content) {
+        int[] ids = pool.internLines(content);
+        lineIds[index] = ids;
+        hot.add(index);
+        hotBytes += bytes(ids);
+    }
+
+    private void evictToBudget() {
+        if (hotBytes + pool.memoryUsage() <= hotBudget) return;
+        int recent = size - KEEP_RECENT;
+        Iterator<Integer> it = hot.iterator();
+        // Released lines only leave the pool when it is compacted, so count what it would keep
+        while (hotBytes + pool.liveMemoryUsage() > hotBudget && it.hasNext()) {
+            int index = it.next();
+            if (index >= recent) continue;
+            if (spillOffsets[index] == NOT_SPILLED) {
+                try {
+                    spill(index);
+                } catch (IOException e) {
+                    // A version that cannot be spilled (e.g. no spill file) stays on the heap
+                    continue;
+                }
+            }
+            int[] ids = lineIds[index];
+            for (int id : ids) pool.release(id);
+            hotBytes -= bytes(ids);
+            lineIds[index] = null;
+            it.remove();
+        }
+        if (pool.memoryUsage() > 2 * pool.liveMemoryUsage()) compactPool();
+    }
+
+    private void compactPool() {
+        int[] remap = pool.compact();
+        for (int index : hot) {
+            int[] ids = lineIds[index];
+            for (int i = 0; i < ids.length; i++) ids[i] = remap[ids[i]];
+        }
+    }
+
+    private synchronized void relievePressure() {
+        hotBudget = Math.max(MIN_HOT_BYTES, Math.min(hotBudget, hotBytes + pool.memoryUsage()) / 2);
+        evictToBudget();
+    }
+
+    private void memoryNotification(Notification notification, Object handback) {
+        String type = notification.getType();
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)
+                || MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)) {
+            relievePressure();
+        }
+    }
+
+    /**
+     * Ask the heap pools that support it to notify when they are still
+     * above the threshold after a collection.
+     */
+    private static void watchHeapPools() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+            long max = pool.getUsage().getMax();
+            if (max > 0 && pool.getCollectionUsageThreshold() == 0) {
+                pool.setCollectionUsageThreshold((long) (max * PRESSURE_THRESHOLD));
+            }
+        }
+    }
+
+    private static boolean heapUnderPressure() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null && usage.getMax() > 0 && usage.getUsed() > usage.getMax() * PRESSURE_THRESHOLD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long bytes(int[] ids) {
+        return 16 + 4L * ids.length;
+    }
+
+    // ---- spill file ----
+
+    private void spill(int index) throws IOException {
+        // The pool already holds the lines as UTF-8
+        byte[] bytes = pool.joinLines(lineIds[index]);
+        long start = spillEnd;
+        write(ByteBuffer.wrap(bytes));
+        spillOffsets[index] = start;
+        spillLengths[index] = bytes.length;
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            ByteBuffer target = segmentSlice(spillEnd, bytes.remaining(), true);
+            int n = target.remaining();
+            int limit = bytes.limit();
+            bytes.limit(bytes.position() + n);
+            target.put(bytes);
+            bytes.limit(limit);
+            spillEnd += n;
+        }
+    }
+
+    private String readSpilled(int index) {
+        byte[] bytes = new byte[spillLengths[index]];
+        long position = spillOffsets[index];
+        int copied = 0;
+        while (copied < bytes.length) {
+            ByteBuffer source;
+            try {
+                source = segmentSlice(position + copied, bytes.length - copied, false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            int n = source.remaining();
+            source.get(bytes, copied, n);
+            copied += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer segmentSlice(long position, int length, boolean forWrite) throws IOException {
+        int segment = (int) (position >>> SEGMENT_SHIFT);
+        if (segment >= segments.length) {
+            if (!forWrite) throw new IOException("Spill position " + position + " was never written");
+            mapSegment(segment);
+        }
+        int offset = (int) (position & (SEGMENT_SIZE - 1));
+        ByteBuffer slice = segments[segment].duplicate();
+        slice.limit(Math.min(SEGMENT_SIZE, offset + length)).position(offset);
+        return slice;
+    }
+
+    private void mapSegment(int segment) throws IOException {
+        if (spillChannel == null) {
+            spillFile = File.createTempFile("trackpad-versions", ".spill");
+            spillFile.deleteOnExit();
+            spillChannel = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, segment + 1);
+        for (int i = segments.length; i <= segment; i++) {
+            grown[i] = spillChannel.map(FileChannel.MapMode.READ_WRITE, (long) i << SEGMENT_SHIFT, SEGMENT_SIZE);
+        }
+        segments = grown;
+    }
+}
@@ -0,0 +1,528 @@
+package service;
+
+import javax.swing.text.*;
+import java.util.Arrays;
+
+/**
+ * Undo/redo history for a text document with a fixed memory budget.
+ * Demonstrates: Document filters, Primitive arrays, Coalescing
+ *
+ * Edits are captured by a DocumentFilter, which sees removed text before it
+ * leaves the document. Each step is one record in parallel int arrays
+ * (offset, removed length, inserted length, group) whose text lives in a
+ * shared char arena. Typing and deleting runs extend the last record instead
+ * of adding new ones, and inserted text is only copied out when a step is
+ * undone, since until then it is still in the document. Large replaces
+ * (setText, Replace All) are trimmed to the span that actually changed.
+ * The budget covers the arena's whole capacity, not just its live text:
+ * when the history outgrows it the oldest steps are dropped, and the arena
+ * is compacted in place and shrunk with the record arrays, so dead text
+ * does not linger.
+ */
+public class UndoHistory {
+
+    private static final int RECORD_BYTES = 6 * 4;
+    private static final int MIN_ARENA = 4096;
+    private static final int MIN_RECORDS = 256;
+    private static final int TRIM_THRESHOLD = 4096;
+    private static final int MAX_RUN = 512;
+    private static final long TYPING_PAUSE_MILLIS = 1500;
+
+    private static final int KIND_OTHER = 0;
+    private static final int KIND_TYPING = 1;
+    private static final int KIND_DELETE = 2;
+
+    private final AbstractDocument doc;
+    private final long budgetBytes;
+
+    // Per record; text spans point into the arena, -1 when not captured
+    private int[] offsets = new int[MIN_RECORDS];
+    private int[] removedStarts = new int[MIN_RECORDS];
+    private int[] removedLengths = new int[MIN_RECORDS];
+    private int[] insertedStarts = new int[MIN_RECORDS];
+    private int[] insertedLengths = new int[MIN_RECORDS];
+    private int[] groups = new int[MIN_RECORDS];
+    private int first;
+    private int cursor;
+    private int count;
+
+    private char[] arena = new char[MIN_ARENA];
+    private int arenaEnd;
+    private long liveChars;
+
+    private int nextGroup = 1;
+    private int compoundDepth;
+    private int compoundGroup;
+    private int compoundFirst;
+    private boolean applying;
+
+    // Whether the record below the cursor may still be extended, and how
+    private int lastKind = KIND_OTHER;
+    private long lastEditTime;
+    private boolean sealed = true;
+
+    public UndoHistory(AbstractDocument doc, long budgetBytes) {
+        this.doc = doc;
+        this.budgetBytes = budgetBytes;
+        doc.setDocumentFilter(new RecordingFilter());
+    }
+
+    public boolean canUndo() {
+        return cursor > first;
+    }
+
+    public boolean canRedo() {
+        return cursor < count;
+    }
+
+    /**
+     * Undo the most recent step.
+     * @return caret offset after the undo, or -1 if there was nothing to undo
+     */
+    public int undo() {
+        if (!canUndo()) return -1;
+        sealed = true;
+        int group = groups[cursor - 1];
+        int caret = -1;
+        while (cursor > first && groups[cursor - 1] == group) {
+            int i = --cursor;
+            if (insertedStarts[i] < 0 && insertedLengths[i] > 0) {
+                insertedStarts[i] = capture(offsets[i], insertedLengths[i]);
+            }
+            apply(offsets[i], insertedLengths[i], removedStarts[i], removedLengths[i]);
+            caret = offsets[i] + removedLengths[i];
+        }
+        // Text captured for redo may push the history over budget
+        enforceBudget();
+        return caret;
+    }
+
+    /**
+     * Redo the most recently undone step.
+     * @return caret offset after the redo, or -1 if there was nothing to redo
+     */
+    public int redo() {
+        if (!canRedo()) return -1;
+        sealed = true;
+        int group = groups[cursor];
+        int caret = -1;
+        while (cursor < count && groups[cursor] == group) {
+            int i = cursor++;
+            apply(offsets[i], removedLengths[i], insertedStarts[i], insertedLengths[i]);
+            caret = offsets[i] + insertedLengths[i];
+        }
+        return caret;
+    }
+
+    /**
+     * Group the following edits into one step until the matching
+     * {@link #endCompound()}. Compounds nest.
+     */
+    public void beginCompound() {
+        if (compoundDepth++ == 0) {
+            compoundGroup = nextGroup++;
+            compoundFirst = cursor;
+            sealed = true;
+        }
+    }
+
+    public void endCompound() {
+        if (compoundDepth > 0 && --compoundDepth == 0) sealed = true;
+    }
+
+    /**
+     * End a compound whose edits the caller has already reverted, leaving
+     * no step behind for it.
+     */
+    public void cancelCompound() {
+        if (compoundDepth == 0) return;
+        compoundDepth = 0;
+        truncate(Math.min(count, Math.max(first, compoundFirst)));
+        sealed = true;
+        reclaim(false);
+    }
+
+    /**
+     * Forget all steps, e.g. when another file is opened.
+     */
+    public void discardAll() {
+        first = cursor = count = 0;
+        if (offsets.length > MIN_RECORDS) resizeRecords(MIN_RECORDS);
+        arena = new char[MIN_ARENA];
+        arenaEnd = 0;
+        liveChars = 0;
+        sealed = true;
+    }
+
+    /**
+     * Bytes held by the history: the whole text arena, including space not
+     * yet reclaimed, and the record arrays.
+     */
+    public long memoryUsage() {
+        return (long) arena.length * 2 + (long) offsets.length * RECORD_BYTES;
+    }
+
+    // ---- recording ----
+
+    private void recordInsert(int offset, int length, boolean typed) {
+        long now = System.currentTimeMillis();
+        int last = cursor - 1;
+        boolean contiguous = cursor == count && last >= first && insertedStarts[last] < 0
+                && offset == offsets[last] + insertedLengths[last];
+        if (contiguous && compoundDepth > 0 && groups[last] == compoundGroup) {
+            // Chunks of one compound insert, e.g. a streamed paste
+            insertedLengths[last] += length;
+            lastEditTime = now;
+            return;
+        }
+        contiguous &= !sealed;
+        if (contiguous && typed && lastKind == KIND_TYPING && now - lastEditTime < TYPING_PAUSE_MILLIS
+                && insertedLengths[last] < MAX_RUN) {
+            insertedLengths[last] += length;
+            lastEditTime = now;
+            if (lastTypedNewline(offset, length)) sealed = true;
+            return;
+        }
+        add(offset, -1, 0, length);
+        lastKind = typed ? KIND_TYPING : KIND_OTHER;
+        lastEditTime = now;
+        sealed = typed && lastTypedNewline(offset, length);
+        enforceBudget();
+    }
+
+    private void recordRemove(int offset, Segment removed, boolean single) {
+        long now = System.currentTimeMillis();
+        int last = cursor - 1;
+        boolean extendable = !sealed && cursor == count && last >= first && lastKind == KIND_DELETE && single
+                && insertedLengths[last] == 0 && removedLengths[last] < MAX_RUN
+                && now - lastEditTime < TYPING_PAUSE_MILLIS;
+        if (extendable && offset + removed.count == offsets[last]) {
+            // Backspace: the removed text goes in front
+            extendRemoved(last, removed, true);
+            offsets[last] = offset;
+        } else if (extendable && offset == offsets[last]) {
+            // Delete: the removed text goes after
+            extendRemoved(last, removed, false);
+        } else {
+            add(offset, append(removed), removed.count, 0);
+            lastKind = single ? KIND_DELETE : KIND_OTHER;
+        }
+        lastEditTime = now;
+        sealed = false;
+        enforceBudget();
+    }
+
+    private void recordReplace(int offset, Segment removed, int insertedLength) {
+        add(offset, append(removed), removed.count, insertedLength);
+        lastKind = KIND_OTHER;
+        sealed = true;
+        enforceBudget();
+    }
+
+    private void add(int offset, int removedStart, int removedLength, int insertedLength) {
+        truncate(cursor);
+        if (count == offsets.length) grow();
+        offsets[count] = offset;
+        removedStarts[count] = removedStart;
+        removedLengths[count] = removedLength;
+        insertedStarts[count] = -1;
+        insertedLengths[count] = insertedLength;
+        groups[count] = compoundDepth > 0 ? compoundGroup : nextGroup++;
+        cursor = ++count;
+    }
+
+    private boolean lastTypedNewline(int offset, int length) {
+        try {
+            return doc.getText(offset + length - 1, 1).charAt(0) == '\n';
+        } catch (BadLocationException e) {
+            return false;
+        }
+    }
+
+    // ---- applying ----
+
+    private void apply(int offset, int removeLength, int textStart, int textLength) {
+        applying = true;
+        try {
+            String text = textLength == 0 ? null : new String(arena, textStart, textLength);
+            doc.replace(offset, removeLength, text, null);
+        } catch (BadLocationException e) {
+            // Records always describe the document as it is at the cursor
+            throw new IllegalStateException(e);
+        } finally {
+            applying = false;
+        }
+    }
+
+    private int capture(int offset, int length) {
+        Segment text = new Segment();
+        try {
+            doc.getText(offset, length, text);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        return append(text);
+    }
+
+    // ---- arena and budget ----
+
+    private int append(Segment text) {
+        reserve(text.count);
+        int start = arenaEnd;
+        System.arraycopy(text.array, text.offset, arena, start, text.count);
+        arenaEnd += text.count;
+        liveChars += text.count;
+        return start;
+    }
+
+    /**
+     * Add text in front of or behind record i's removed text, in place when
+     * that span is at the end of the arena.
+     */
+    private void extendRemoved(int i, Segment text, boolean inFront) {
+        reserve(removedLengths[i] + text.count);
+        int start = removedStarts[i];
+        int length = removedLengths[i];
+        int target = start + length == arenaEnd ? start : arenaEnd;
+        System.arraycopy(arena, start, arena, inFront ? target + text.count : target, length);
+        System.arraycopy(text.array, text.offset, arena, inFront ? target : target + length, text.count);
+        arenaEnd = target + length + text.count;
+        liveChars += text.count;
+        removedStarts[i] = target;
+        removedLengths[i] = length + text.count;
+    }
+
+    private void reserve(int extra) {
+        if (arenaEnd + extra <= arena.length) return;
+        if (arenaEnd - liveChars >= arena.length / 4) compact();
+        if (arenaEnd + extra > arena.length) {
+            // Grow by half, but not past the budget unless one span needs it
+            long grown = Math.min(arena.length + arena.length / 2L, budgetBytes / 2);
+            arena = Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) arenaEnd + extra, grown)));
+        }
+    }
+
+    /**
+     * Slide every live span to the front of the arena, in place, dropping
+     * text of steps that were discarded or spans that were superseded.
+     * Spans are moved in arena order so none is overwritten before it moves.
+     */
+    private void compact() {
+        long[] order = new long[2 * (count - first)];
+        int spans = 0;
+        for (int i = first; i < count; i++) {
+            int record = i - first;
+            if (removedLengths[i] > 0) order[spans++] = (long) removedStarts[i] << 32 | record << 1;
+            if (insertedStarts[i] >= 0 && insertedLengths[i] > 0) {
+                order[spans++] = (long) insertedStarts[i] << 32 | record << 1 | 1;
+            }
+        }
+        Arrays.sort(order, 0, spans);
+        int position = 0;
+        for (int k = 0; k < spans; k++) {
+            int ref = (int) order[k];
+            int i = first + (ref >>> 1);
+            boolean inserted = (ref & 1) != 0;
+            int length = inserted ? insertedLengths[i] : removedLengths[i];
+            System.arraycopy(arena, (int) (order[k] >>> 32), arena, position, length);
+            if (inserted) insertedStarts[i] = position;
+            else removedStarts[i] = position;
+            position += length;
+        }
+        arenaEnd = position;
+        liveChars = position;
+    }
+
+    /**
+     * Compact and shrink the arena and the record arrays once most of them
+     * is no longer in use, e.g. after old steps were dropped or redo steps
+     * truncated.
+     * @param force whether to do so regardless, to get back under budget
+     */
+    private void reclaim(boolean force) {
+        if (arena.length > MIN_ARENA && (force || liveChars < arena.length / 2)) {
+            compact();
+            int capacity = packedCapacity(liveChars);
+            if (capacity < arena.length) arena = Arrays.copyOf(arena, capacity);
+        }
+        int records = count - first;
+        if (offsets.length > MIN_RECORDS && (force || records < offsets.length / 4)) {
+            int capacity = packedRecords(records);
+            if (capacity < offsets.length) resizeRecords(capacity);
+        }
+    }
+
+    private static int packedCapacity(long chars) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(MIN_ARENA, chars + chars / 4));
+    }
+
+    private static int packedRecords(int records) {
+        return Math.max(MIN_RECORDS, records + records / 4);
+    }
+
+    /**
+     * Memory the history would use with its arena and records packed.
+     */
+    private long packedUsage() {
+        return 2L * packedCapacity(liveChars) + (long) packedRecords(count - first) * RECORD_BYTES;
+    }
+
+    private void enforceBudget() {
+        while (packedUsage() > budgetBytes && first < cursor - 1) dropOldest();
+        if (packedUsage() > budgetBytes) truncate(cursor);
+        if (packedUsage() > budgetBytes) {
+            // A single step larger than the whole budget cannot be kept
+            discardAll();
+            return;
+        }
+        reclaim(memoryUsage() > budgetBytes);
+    }
+
+    private void dropOldest() {
+        liveChars -= spanChars(first);
+        first++;
+        if (first > offsets.length / 2) shiftRecords();
+    }
+
+    /**
+     * Drop records from index on (the redo steps, or a cancelled compound).
+     */
+    private void truncate(int index) {
+        for (int i = index; i < count; i++) liveChars -= spanChars(i);
+        count = index;
+        if (cursor > count) cursor = count;
+    }
+
+    private int spanChars(int i) {
+        return removedLengths[i] + (insertedStarts[i] >= 0 ? insertedLengths[i] : 0);
+    }
+
+    private void shiftRecords() {
+        int live = count - first;
+        System.arraycopy(offsets, first, offsets, 0, live);
+        System.arraycopy(removedStarts, first, removedStarts, 0, live);
+        System.arraycopy(removedLengths, first, removedLengths, 0, live);
+        System.arraycopy(insertedStarts, first, insertedStarts, 0, live);
+        System.arraycopy(insertedLengths, first, insertedLengths, 0, live);
+        System.arraycopy(groups, first, groups, 0, live);
+        cursor -= first;
+        compoundFirst -= first;
+        count = live;
+        first = 0;
+    }
+
+    private void grow() {
+        resizeRecords(offsets.length * 2);
+    }
+
+    private void resizeRecords(int capacity) {
+        if (first > 0) shiftRecords();
+        offsets = Arrays.copyOf(offsets, capacity);
+        removedStarts = Arrays.copyOf(removedStarts, capacity);
+        removedLengths = Arrays.copyOf(removedLengths, capacity);
+        insertedStarts = Arrays.copyOf(insertedStarts, capacity);
+        insertedLengths = Arrays.copyOf(insertedLengths, capacity);
+        groups = Arrays.copyOf(groups, capacity);
+    }
+
+    /**
+     * Records every change made through the document's public API.
+     */
+    private class RecordingFilter extends DocumentFilter {
+
+        @Override
+        public void insertString(FilterBypass fb, int offset, String text, AttributeSet attrs)
+                throws BadLocationException {
+            fb.insertString(offset, text, attrs);
+            if (!applying && text != null && !text.isEmpty()) recordInsert(offset, text.length(), isTyped(text));
+        }
+
+        @Override
+        public void remove(FilterBypass fb, int offset, int length) throws BadLocationException {
+            if (applying || length == 0) {
+                fb.remove(offset, length);
+                return;
+            }
+            Segment removed = removedText(offset, length);
+            fb.remove(offset, length);
+            recordRemove(offset, removed, length <= 2);
+        }
+
+        @Override
+        public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs)
+                throws BadLocationException {
+            if (applying) {
+                fb.replace(offset, length, text, attrs);
+                return;
+            }
+            if (text == null) text = "";
+            if (length > TRIM_THRESHOLD && !text.isEmpty()) {
+                int prefix = commonPrefix(offset, length, text);
+                int suffix = commonSuffix(offset + prefix, length - prefix, text, prefix);
+                offset += prefix;
+                length -= prefix + suffix;
+                text = text.substring(prefix, text.length() - suffix);
+                if (length == 0 && text.isEmpty()) return;
+            }
+            if (length == 0) {
+                insertString(fb, offset, text, attrs);
+                return;
+            }
+            Segment removed = removedText(offset, length);
+            fb.replace(offset, length, text, attrs);
+            if (text.isEmpty()) {
+                recordRemove(offset, removed, false);
+            } else if (isTyped(text)) {
+                // Typing over a selection starts a typing run
+                recordReplace(offset, removed, text.length());
+                lastKind = KIND_TYPING;
+                lastEditTime = System.currentTimeMillis();
+                sealed = false;
+            } else {
+                recordReplace(offset, removed, text.length());
+            }
+        }
+
+        private boolean isTyped(String text) {
+            return text.length() == 1 || text.length() == 2 && Character.isSurrogatePair(text.charAt(0), text.charAt(1));
+        }
+
+        private Segment removedText(int offset, int length) throws BadLocationException {
+            // Copied, since the document reuses its storage after the removal
+            Segment removed = new Segment();
+            doc.getText(offset, length, removed);
+            char[] copy = Arrays.copyOfRange(removed.array, removed.offset, removed.offset + removed.count);
+            return new Segment(copy, 0, copy.length);
+        }
+
+        private int commonPrefix(int offset, int length, String text) throws BadLocationException {
+            Segment segment = new Segment();
+            segment.setPartialReturn(true);
+            int limit = Math.min(length, text.length());
+            int matched = 0;
+            while (matched < limit) {
+                doc.getText(offset + matched, limit - matched, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] != text.charAt(matched)) return matched;
+                    matched++;
+                }
+            }
+            return matched;
+        }
+
+        private int commonSuffix(int offset, int length, String text, int textStart) throws BadLocationException {
+            Segment segment = new Segment();
+            int limit = Math.min(length, text.length() - textStart);
+            int matched = 0;
+            while (matched < limit) {
+                int window = Math.min(64 * 1024, limit - matched);
+                doc.getText(offset + length - matched - window, window, segment);
+                for (int i = segment.count - 1; i >= 0; i--) {
+                    if (segment.array[segment.offset + i] != text.charAt(text.length() - 1 - matched)) return matched;
+                    matched++;
+                }
+            }
+            return matched;
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package service;
+
+import model.Version;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Checksummed on-disk format for version histories.
+ * Demonstrates: Framing, Checksums, Fork/Join, Memory-mapped I/O
+ *
+ * An archive is a short header followed by one record per version:
+ * a sync marker, the payload length, the payload's CRC32C and the encoded
+ * version. Reading maps the file, walks the record headers and verifies the
+ * checksums in parallel. A record that fails is skipped and the damaged span
+ * is rescanned for sync markers, so every intact version is kept. Files in
+ * the old single-object format are still read. Versions are written and
+ * handed to the caller one at a time, and decoded in bounded batches, so
+ * neither saving nor loading needs the whole history on the heap.
+ */
+public class VersionArchive {
+
+    private static final int MAGIC = 0x54505641; // "TPVA"
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int SYNC = 0xC35A177E;
+    private static final int RECORD_HEADER = 12;
+
+    // First payload byte: how the version is encoded
+    private static final byte SERIALIZED_PAYLOAD = 0;
+    private static final byte TEXT_PAYLOAD = 1;
+    private static final int TEXT_HEADER = 1 + 4 + 8 + 4;
+
+    // Bytes verified by one fork/join leaf
+    private static final long VERIFY_GRAIN = 32L << 20;
+    // Payload bytes decoded in parallel before the versions are handed on
+    private static final long DECODE_BATCH = 8L << 20;
+
+    private VersionArchive() {
+    }
+
+    /**
+     * Outcome of reading an archive.
+     */
+    public static class LoadResult {
+        private final int versionCount;
+        private final boolean legacy;
+        private final int damagedRegions;
+        private final long damagedBytes;
+        private final int unreadableRecords;
+
+        LoadResult(int versionCount, boolean legacy, int damagedRegions, long damagedBytes,
+                   int unreadableRecords) {
+            this.versionCount = versionCount;
+            this.legacy = legacy;
+            this.damagedRegions = damagedRegions;
+            this.damagedBytes = damagedBytes;
+            this.unreadableRecords = unreadableRecords;
+        }
+
+        public int getVersionCount() { return versionCount; }
+        public boolean isLegacy() { return legacy; }
+        public int getDamagedRegions() { return damagedRegions; }
+        public long getDamagedBytes() { return damagedBytes; }
+        public int getUnreadableRecords() { return unreadableRecords; }
+
+        public boolean isIntact() {
+            return damagedRegions == 0 && unreadableRecords == 0;
+        }
+    }
+
+    /**
+     * Write the versions to a temporary file and move it over the target,
+     * so an interrupted save never leaves a half-written archive behind.
+     */
+    public static <T> void write(File file, List<Version<T>> versions) throws IOException {
+        write(file, versions.size(), versions::get);
+    }
+
+    /**
+     * Write count versions, fetching each one only when it is written.
+     */
+    public static <T> void write(File file, int count, IntFunction<Version<T>> versions) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        boolean moved = false;
+        try {
+            writeRecords(temp, count, versions);
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            // A failed save keeps the previous archive and leaves no partial file behind
+            if (!moved) temp.delete();
+        }
+    }
+
+    private static <T> void writeRecords(File temp, int count, IntFunction<Version<T>> versions) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileOutputStream fos = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = encode(versions.apply(i), payload);
+                crc.reset();
+                crc.update(bytes);
+                out.writeInt(SYNC);
+                out.writeInt(bytes.length);
+                out.writeInt((int) crc.getValue());
+                out.write(bytes);
+            }
+            out.flush();
+            fos.getChannel().force(true);
+        }
+    }
+
+    /**
+     * Pass every intact version of an archive to sink, in file order.
+     * @return null if the file does not exist
+     */
+    public static <T> LoadResult read(File file, Consumer<Version<T>> sink) throws IOException, ClassNotFoundException {
+        if (!file.exists()) return null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) return new LoadResult(0, false, 0, 0, 0);
+            MappedFile mapped = new MappedFile(channel, size);
+            if (size >= 2 && mapped.get(0) == (byte) 0xAC && mapped.get(1) == (byte) 0xED) {
+                return readLegacy(file, sink);
+            }
+            return readRecords(mapped, file, sink);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> LoadResult readLegacy(File file, Consumer<Version<T>> sink)
+            throws IOException, ClassNotFoundException {
+        // The old format is one serialized list, which can only be read whole
+        List<Version<T>> versions;
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            versions = (List<Version<T>>) ois.readObject();
+        }
+        versions.forEach(sink);
+        return new LoadResult(versions.size(), true, 0, 0, 0);
+    }
+
+    private static <T> LoadResult readRecords(MappedFile mapped, File file, Consumer<Version<T>> sink)
+            throws IOException {
+        long size = mapped.size;
+        boolean headerIntact = size >= HEADER_SIZE && mapped.getInt(0) == MAGIC && mapped.getInt(4) == FORMAT;
+        long start = headerIntact ? HEADER_SIZE : 0;
+
+        // Walk the chain of record headers; the first broken link ends the walk
+        Records candidates = new Records();
+        long position = start;
+        while (position + RECORD_HEADER <= size && mapped.getInt(position) == SYNC) {
+            int length = mapped.getInt(position + 4);
+            if (length < 0 || position + RECORD_HEADER + length > size) break;
+            candidates.add(position, length, mapped.getInt(position + 8));
+            position += RECORD_HEADER + length;
+        }
+        long walkEnd = position;
+
+        boolean[] valid = new boolean[candidates.count];
+        ForkJoinPool.commonPool().invoke(new VerifyTask(mapped, candidates, 0, candidates.count, valid));
+
+        // Keep verified records and rescan whatever lies between them
+        Records records = new Records();
+        long scanFrom = -1;
+        for (int i = 0; i < candidates.count; i++) {
+            if (valid[i]) {
+                if (scanFrom >= 0) scan(mapped, scanFrom, candidates.positions[i], records);
+                scanFrom = -1;
+                records.add(candidates.positions[i], candidates.lengths[i], candidates.checksums[i]);
+            } else if (scanFrom < 0) {
+                scanFrom = candidates.positions[i] + 1;
+            }
+        }
+        // A bad length can end the walk inside an intact record, so after a
+        // failed last candidate rescan to the end in one pass, not split at walkEnd
+        if (scanFrom >= 0) scan(mapped, scanFrom, size, records);
+        else if (walkEnd < size) scan(mapped, walkEnd, size, records);
+
+        if (!headerIntact && records.count == 0) {
+            throw new IOException("Not a version archive: " + file);
+        }
+
+        int damagedRegions = 0;
+        long damagedBytes = 0;
+        long expected = HEADER_SIZE;
+        for (int i = 0; i <= records.count; i++) {
+            long next = i < records.count ? records.positions[i] : size;
+            if (next > expected) {
+                damagedRegions++;
+                damagedBytes += next - expected;
+            }
+            if (i < records.count) expected = next + RECORD_HEADER + records.lengths[i];
+        }
+
+        int delivered = 0;
+        int from = 0;
+        while (from < records.count) {
+            int to = from + 1;
+            long batchBytes = records.lengths[from];
+            while (to < records.count && batchBytes + records.lengths[to] <= DECODE_BATCH) {
+                batchBytes += records.lengths[to++];
+            }
+            for (Version<T> version : VersionArchive.<T>decode(mapped, records, from, to)) {
+                if (version == null) continue;
+                sink.accept(version);
+                delivered++;
+            }
+            from = to;
+        }
+        return new LoadResult(delivered, false, damagedRegions, damagedBytes, records.count - delivered);
+    }
+
+    /**
+     * Find records in [from, to) by their sync markers, accepting only
+     * those whose checksum matches.
+     */
+    private static void scan(MappedFile mapped, long from, long to, Records records) {
+        long position = from;
+        while ((position = mapped.find(SYNC, position, to)) >= 0) {
+            int length = position + RECORD_HEADER <= mapped.size ? mapped.getInt(position + 4) : -1;
+            if (length >= 0 && position + RECORD_HEADER + length <= to) {
+                int checksum = mapped.getInt(position + 8);
+                if (checksum(mapped, position + RECORD_HEADER, length) == checksum) {
+                    records.add(position, length, checksum);
+                    position += RECORD_HEADER + length;
+                    continue;
+                }
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Decode records [from, to) in parallel.
+     * @return one version per record, null where it could not be decoded
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Version<T>[] decode(MappedFile mapped, Records records, int from, int to) {
+        Version<T>[] decoded = new Version[to - from];
+        IntStream.range(from, to).parallel().forEach(i -> {
+            byte[] bytes = new byte[records.lengths[i]];
+            mapped.copy(records.positions[i] + RECORD_HEADER, bytes);
+            try {
+                decoded[i - from] = (Version<T>) decode(bytes);
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                // Checksummed but not readable by this build; counted as unreadable
+            }
+        });
+        return decoded;
+    }
+
+    /**
+     * Text versions are stored as number, timestamp and UTF-8 content, which
+     * decodes far faster than object serialization; anything else is
+     * serialized.
+     */
+    private static byte[] encode(Version<?> version, ByteArrayOutputStream buffer) throws IOException {
+        buffer.reset();
+        if (version.getContent() instanceof String && version.getTimestamp() != null) {
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeByte(TEXT_PAYLOAD);
+            out.writeInt(version.getNumber());
+            out.writeLong(version.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(version.getTimestamp().getNano());
+            out.write(((String) version.getContent()).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } else {
+            buffer.write(SERIALIZED_PAYLOAD);
+            try (ObjectOutputStream oos = new ObjectOutputStream(buffer)) {
+                oos.writeObject(version);
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    private static Version<?> decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        if (bytes.length == 0) throw new IOException("Empty record");
+        if (bytes[0] == TEXT_PAYLOAD) {
+            if (bytes.length < TEXT_HEADER) throw new IOException("Truncated record");
+            ByteBuffer header = ByteBuffer.wrap(bytes, 1, TEXT_HEADER - 1);
+            int number = header.getInt();
+            LocalDateTime timestamp = LocalDateTime.ofEpochSecond(header.getLong(), header.getInt(), ZoneOffset.UTC);
+            String content = new String(bytes, TEXT_HEADER, bytes.length - TEXT_HEADER, StandardCharsets.UTF_8);
+            return new Version<>(number, timestamp, content);
+        }
+        if (bytes[0] != SERIALIZED_PAYLOAD) throw new IOException("Unknown record type " + bytes[0]);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1))) {
+            return (Version<?>) ois.readObject();
+        }
+    }
+
+    private static int checksum(MappedFile mapped, long position, int length) {
+        CRC32C crc = new CRC32C();
+        mapped.update(crc, position, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Verifies a range of records, splitting until each leaf covers about
+     * VERIFY_GRAIN bytes.
+     */
+    private static class VerifyTask extends RecursiveAction {
+        private final MappedFile mapped;
+        private final Records records;
+        private final int from;
+        private final int to;
+        private final boolean[] valid;
+
+        VerifyTask(MappedFile mapped, Records records, int from, int to, boolean[] valid) {
+            this.mapped = mapped;
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.valid = valid;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && records.bytes(from, to) > VERIFY_GRAIN) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new VerifyTask(mapped, records, from, middle, valid),
+                          new VerifyTask(mapped, records, middle, to, valid));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                valid[i] = checksum(mapped, records.positions[i] + RECORD_HEADER, records.lengths[i])
+                        == records.checksums[i];
+            }
+        }
+    }
+
+    /**
+     * Record positions, payload lengths and checksums in file order.
+     */
+    private static final class Records {
+        long[] positions = new long[256];
+        int[] lengths = new int[256];
+        int[] checksums = new int[256];
+        int count;
+
+        void add(long position, int length, int checksum) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+                checksums = Arrays.copyOf(checksums, count * 2);
+            }
+            positions[count] = position;
+            lengths[count] = length;
+            checksums[count] = checksum;
+            count++;
+        }
+
+        long bytes(int from, int to) {
+            return positions[to - 1] + lengths[to - 1] - positions[from];
+        }
+    }
+
+    /**
+     * A read-only mapping of a file of any size, as a series of segments
+     * (a single MappedByteBuffer is limited to 2 GB).
+     */
+    private static final class MappedFile {
+        private static final int SEGMENT_SHIFT = 30;
+        private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+        final long size;
+        private final MappedByteBuffer[] segments;
+
+        MappedFile(FileChannel channel, long size) throws IOException {
+            this.size = size;
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long offset = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(1L << SEGMENT_SHIFT, size - offset));
+            }
+        }
+
+        byte get(long position) {
+            return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK));
+        }
+
+        int getInt(long position) {
+            MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            int offset = (int) (position & SEGMENT_MASK);
+            if (offset + 4 <= segment.limit()) return segment.getInt(offset);
+            return (get(position) & 0xFF) << 24 | (get(position + 1) & 0xFF) << 16
+                    | (get(position + 2) & 0xFF) << 8 | get(position + 3) & 0xFF;
+        }
+
+        /**
+         * Position of the next occurrence of marker in [from, to), or -1.
+         */
+        long find(int marker, long from, long to) {
+            byte first = (byte) (marker >>> 24);
+            for (long position = from; position + 4 <= to; position++) {
+                if (get(position) == first && getInt(position) == marker) return position;
+            }
+            return -1;
+        }
+
+        void update(CRC32C crc, long position, long length) {
+            while (length > 0) {
+                ByteBuffer slice = slice(position, length);
+                int n = slice.remaining();
+                crc.update(slice);
+                position += n;
+                length -= n;
+            }
+        }
+
+        void copy(long position, byte[] target) {
+            int copied = 0;
+            while (copied < target.length) {
+                ByteBuffer slice = slice(position + copied, target.length - copied);
+                int n = slice.remaining();
+                slice.get(target, copied, n);
+                copied += n;
+            }
+        }
+
+        private ByteBuffer slice(long position, long length) {
+            MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            int offset = (int) (position & SEGMENT_MASK);
+            int n = (int) Math.min(length, segment.limit() - offset);
+            ByteBuffer slice = segment.duplicate();
+            slice.limit(offset + n).position(offset);
+            return slice;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package service;
+
+import model.Version;
+
+/**
+ * Observer for changes to a {@link VersionManager}'s history.
+ */
+public interface VersionListener<T> {
+    void versionAdded(Version<T> version);
+
+    /**
+     * The whole history was replaced; read it back from versions as needed.
+     */
+    void versionsReset(VersionManager<T> versions);
+}
@@ -5,37 +5,125 @@ import model.VersionException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class VersionManager<T> implements Versionable<T> {
-    private final List<Version<T>> versions = new ArrayList<>();
+    private final Supplier<? extends VersionStore<T>> storeFactory;
+    private VersionStore<T> store;
+    // Receives a history being loaded until it replaces the current one
+    private VersionStore<T> loading;
+    private int loadingLastNumber;
+    private final List<VersionListener<T>> listeners = new ArrayList<>();
     private int nextVersionNumber = 1;
 
+    public VersionManager() {
+        this(HeapVersionStore::new);
+    }
+
+    /**
+     * @param storeFactory creates the store for the history, and a fresh one
+     *                     for each history that is loaded to replace it
+     */
+    public VersionManager(Supplier<? extends VersionStore<T>> storeFactory) {
+        this.storeFactory = storeFactory;
+        this.store = storeFactory.get();
+    }
+
+    public void addVersionListener(VersionListener<T> listener) {
+        listeners.add(listener);
+    }
+
     @Override
     public void addVersion(T content) {
-        versions.add(new Version<>(nextVersionNumber++, LocalDateTime.now(), content));
+        Version<T> version = new Version<>(nextVersionNumber++, LocalDateTime.now(), content);
+        store.add(version);
+        for (VersionListener<T> listener : listeners) listener.versionAdded(version);
     }
 
     @Override
     public T getVersionContent(int index) throws VersionException {
-        if (index < 0 || index >= versions.size()) {
+        if (index < 0 || index >= store.size()) {
             throw new VersionException("Invalid version index: " + index);
         }
-        return versions.get(index).getContent();
+        return store.getContent(index);
     }
 
     @Override
     public int getVersionCount() {
-        return versions.size();
+        return store.size();
+    }
+
+    public int getVersionNumber(int index) {
+        return store.getNumber(index);
+    }
+
+    public LocalDateTime getVersionTimestamp(int index) {
+        return store.getTimestamp(index);
+    }
+
+    /**
+     * Get a version for a one-off pass over the history, such as saving it,
+     * without the store caching it as recently used.
+     */
+    public Version<T> readVersion(int index) {
+        return store.read(index);
     }
 
+    /**
+     * Every version at once; a pass over a long history should use
+     * {@link #readVersion(int)} instead, which keeps one at a time.
+     */
     @Override
     public List<Version<T>> getAllVersions() {
-        return new ArrayList<>(versions);
+        List<Version<T>> all = new ArrayList<>(store.size());
+        for (int i = 0; i < store.size(); i++) all.add(store.read(i));
+        return all;
     }
 
     public void setAllVersions(List<Version<T>> loaded) {
-        versions.clear();
-        versions.addAll(loaded);
-        nextVersionNumber = versions.size() + 1;
+        beginLoad();
+        for (Version<T> version : loaded) loadVersion(version);
+        endLoad();
+    }
+
+    /**
+     * Start loading a history whose versions are passed one at a time to
+     * {@link #loadVersion(Version)}, e.g. while an archive is read, so they
+     * never all have to be on the heap. They go into a fresh store, which
+     * replaces the current history only at {@link #endLoad()};
+     * {@link #abortLoad()} drops it and leaves the history as it was.
+     */
+    public void beginLoad() {
+        abortLoad();
+        loading = storeFactory.get();
+        loadingLastNumber = 0;
+    }
+
+    public void loadVersion(Version<T> version) {
+        loading.add(version);
+        loadingLastNumber = Math.max(loadingLastNumber, version.getNumber());
+    }
+
+    public void endLoad() {
+        store.close();
+        store = loading;
+        loading = null;
+        // Recovery may have skipped versions, so continue after the highest number rather than the count
+        nextVersionNumber = loadingLastNumber + 1;
+        for (VersionListener<T> listener : listeners) listener.versionsReset(this);
+    }
+
+    public void abortLoad() {
+        if (loading == null) return;
+        loading.close();
+        loading = null;
+    }
+
+    /**
+     * Release the store, e.g. its spill file, when the history is no longer needed.
+     */
+    public void close() {
+        abortLoad();
+        store.close();
     }
 }
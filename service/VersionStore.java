@@ -0,0 +1,30 @@
+package service;
+
+import model.Version;
+
+import java.time.LocalDateTime;
+
+/**
+ * Storage backend for the versions held by a {@link VersionManager}.
+ */
+public interface VersionStore<T> {
+    void add(Version<T> version);
+    Version<T> get(int index);
+    T getContent(int index);
+
+    /**
+     * Get a version for a one-off pass over the history, such as saving it,
+     * without treating it as recently used.
+     */
+    Version<T> read(int index);
+
+    int getNumber(int index);
+    LocalDateTime getTimestamp(int index);
+    int size();
+    void clear();
+
+    /**
+     * Release anything held outside the heap; the store is not used afterwards.
+     */
+    void close();
+}